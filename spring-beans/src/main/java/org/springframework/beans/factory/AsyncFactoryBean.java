@@ -0,0 +1,54 @@
+package org.springframework.beans.factory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 异步创建对象的FactoryBean
+ *
+ * 单例的AsyncFactoryBean会在预实例化时提前调用getObjectAsync(),和其它bean并行创建对象,
+ * 直到第一次真正使用该对象时才等待future完成。等待得到的对象和普通FactoryBean一样
+ * 经过后处理并放入FactoryBean对象缓存。
+ * @param <T> 创建的对象类型
+ */
+public interface AsyncFactoryBean<T> extends FactoryBean<T> {
+
+    /**
+     * getObjectTimeout()的默认值(毫秒)
+     */
+    long DEFAULT_OBJECT_TIMEOUT = 60000;
+
+    /**
+     * 开始异步创建对象,应该尽快返回,耗时的工作放在返回的future中完成。
+     * 单例在被移除之前只会调用一次
+     */
+    CompletableFuture<T> getObjectAsync() throws Exception;
+
+    /**
+     * 第一次使用时最多等待getObjectAsync()的结果多长时间(毫秒),超时按创建失败处理。
+     * 异步任务反过来等待正在使用该对象的线程所创建的bean时,不会一直挂起
+     */
+    default long getObjectTimeout(){
+        return DEFAULT_OBJECT_TIMEOUT;
+    }
+
+    /**
+     * 同步获取对象,默认最多等待getObjectAsync()的结果getObjectTimeout()毫秒
+     */
+    @Override
+    default T getObject() throws Exception {
+        try{
+            return getObjectAsync().get(getObjectTimeout(),TimeUnit.MILLISECONDS);
+        }catch(ExecutionException ex){
+            Throwable cause = ex.getCause();
+            if(cause instanceof Exception){
+                throw (Exception) cause;
+            }
+            if(cause instanceof Error){
+                throw (Error) cause;
+            }
+            throw ex;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.springframework.beans.factory;
+
+/**
+ * 对象可以复用的非单例FactoryBean
+ *
+ * isSingleton()返回false时,容器为每个这样的FactoryBean维护一个有界的对象池:
+ * 获取经过后处理的对象时优先从池中借出,池中没有时才调用getObject()并进行后处理,
+ * 使用完的对象通过registry的returnFactoryBeanObject归还;不需要后处理的获取不经过对象池。
+ * 在池中闲置超过getMaxIdleTime()、归还时池已满或者bean被移除时,对象会被丢弃,
+ * 实现了DisposableBean或AutoCloseable的对象在丢弃时被销毁。
+ * @param <T> 创建的对象类型
+ */
+public interface PooledFactoryBean<T> extends FactoryBean<T> {
+
+    /**
+     * 池中最多保留的闲置对象个数,超过时归还的对象直接丢弃
+     */
+    default int getMaxIdle(){
+        return 8;
+    }
+
+    /**
+     * 对象在池中闲置的最长时间(毫秒)
+     */
+    default long getMaxIdleTime(){
+        return 60000;
+    }
+}
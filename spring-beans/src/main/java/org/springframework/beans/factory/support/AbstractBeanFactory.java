@@ -5,6 +5,9 @@ import org.springframework.beans.PropertyEditorRegistrar;
 import org.springframework.beans.PropertyEditorRegistry;
 import org.springframework.beans.TypeConverter;
 import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryUtils;
+import org.springframework.beans.factory.BeanIsNotAFactoryException;
+import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.beans.factory.config.*;
 import org.springframework.core.ResolvableType;
@@ -13,11 +16,28 @@ import org.springframework.util.StringValueResolver;
 
 import java.beans.PropertyEditor;
 import java.security.AccessControlContext;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 综合FactoryBeanRegistrySupport和ConfigurableBeanFactory的功能
  */
 public abstract class AbstractBeanFactory extends FactoryBeanRegistrySupport implements ConfigurableBeanFactory {
+
+    /**
+     * getBean的快速路径:原始bean name(不带&前缀,也不是别名) - 已经完全创建的非FactoryBean单例。
+     * 命中时只需要一次ConcurrentHashMap查找,不分配对象;
+     * 单例被移除、缓存被清空或者该名称的别名发生变化时失效
+     */
+    private final Map<String,Object> resolvedSingletons = new ConcurrentHashMap<>(256);
+
+    /**
+     * 每次让resolvedSingletons失效之前递增,用于发现在查找期间发生的失效
+     */
+    private final AtomicLong resolvedSingletonsGeneration = new AtomicLong();
+
     @Override
     public void setParentBeanFactory(BeanFactory parentBeanFactory) throws IllegalStateException {
 
@@ -185,7 +205,90 @@ public abstract class AbstractBeanFactory extends FactoryBeanRegistrySupport imp
 
     @Override
     public Object getBean(String name) throws BeansException {
-        return null;
+        Object bean = this.resolvedSingletons.get(name);
+        if(bean != null){
+            return bean;
+        }
+        return doGetBean(name);
+    }
+
+    /**
+     * getBean的完整路径:去掉&前缀、解析别名,然后从单例缓存中获取,FactoryBean返回它创建的对象
+     */
+    private Object doGetBean(String name) throws BeansException {
+        long generation = this.resolvedSingletonsGeneration.get();
+        String beanName = transformedBeanName(name);
+        Object sharedInstance = getSingleton(beanName);
+        if(sharedInstance == null){
+            throw new NoSuchBeanDefinitionException(name);
+        }
+        Object bean = getObjectForBeanInstance(sharedInstance,name,beanName);
+        //只缓存直接用原始名称获取的、已经完全创建的普通单例,早期引用和FactoryBean都走完整路径
+        if(name.equals(beanName) && bean == sharedInstance && !(sharedInstance instanceof FactoryBean) &&
+                !isSingletonCurrentlyInCreation(beanName) && getSingleton(beanName,false) == sharedInstance){
+            this.resolvedSingletons.put(beanName,sharedInstance);
+            //查找期间发生了失效,放入的可能已经过期
+            if(this.resolvedSingletonsGeneration.get() != generation){
+                this.resolvedSingletons.remove(beanName,sharedInstance);
+            }
+        }
+        return bean;
+    }
+
+    /**
+     * 返回bean name对应的原始名称,去掉FactoryBean的&前缀并解析别名
+     */
+    protected String transformedBeanName(String name){
+        return canonicalName(BeanFactoryUtils.transformedBeanName(name));
+    }
+
+    /**
+     * 获取给定bean实例对应的对象:普通bean返回本身;
+     * FactoryBean在name带&前缀时返回本身,否则返回它创建的对象
+     */
+    protected Object getObjectForBeanInstance(Object beanInstance,String name,String beanName){
+        if(BeanFactoryUtils.isFactoryDereference(name)){
+            if(beanInstance instanceof NullBean){
+                return beanInstance;
+            }
+            if(!(beanInstance instanceof FactoryBean)){
+                throw new BeanIsNotAFactoryException(transformedBeanName(name),beanInstance.getClass());
+            }
+            return beanInstance;
+        }
+        if(!(beanInstance instanceof FactoryBean)){
+            return beanInstance;
+        }
+        Object object = getCacheObjectForFactoryBean(beanName);
+        if(object == null){
+            object = getObjectFromFactoryBean((FactoryBean<?>) beanInstance,beanName,true);
+        }
+        return object;
+    }
+
+    @Override
+    protected void removeSingleton(String beanName){
+        super.removeSingleton(beanName);
+        this.resolvedSingletonsGeneration.incrementAndGet();
+        this.resolvedSingletons.remove(beanName);
+    }
+
+    @Override
+    protected void clearSingletonCache(){
+        super.clearSingletonCache();
+        this.resolvedSingletonsGeneration.incrementAndGet();
+        this.resolvedSingletons.clear();
+    }
+
+    /**
+     * 名称变成了别名(或者不再是别名)之后,按该名称缓存的单例不再有效
+     */
+    @Override
+    protected void canonicalNamesChanged(Set<String> names){
+        this.resolvedSingletonsGeneration.incrementAndGet();
+        for (String name : names) {
+            this.resolvedSingletons.remove(name);
+        }
     }
 
     @Override
@@ -225,16 +328,30 @@ public abstract class AbstractBeanFactory extends FactoryBeanRegistrySupport imp
 
     @Override
     public boolean isTypeMatch(String name, ResolvableType typeToMatch) throws NoSuchBeanDefinitionException {
-        return false;
+        Class<?> type = getType(name);
+        return (typeToMatch == null || (type != null && typeToMatch.isAssignableFrom(type)));
     }
 
     @Override
     public boolean isTypeMatch(String name, Class<?> typeToMatch) throws NoSuchBeanDefinitionException {
-        return false;
+        Class<?> type = getType(name);
+        return (typeToMatch == null || (type != null && typeToMatch.isAssignableFrom(type)));
     }
 
+    /**
+     * 根据已经注册的单例确定类型:FactoryBean在name不带&前缀时返回它创建的对象的类型,
+     * 通过getTypeForFactoryBean(String, FactoryBean)获取并缓存
+     */
     @Override
     public Class<?> getType(String name) throws NoSuchBeanDefinitionException {
-        return null;
+        String beanName = transformedBeanName(name);
+        Object beanInstance = getSingleton(beanName,false);
+        if(beanInstance == null){
+            throw new NoSuchBeanDefinitionException(name);
+        }
+        if(beanInstance instanceof FactoryBean && !BeanFactoryUtils.isFactoryDereference(name)){
+            return getTypeForFactoryBean(beanName,(FactoryBean<?>) beanInstance);
+        }
+        return beanInstance.getClass();
     }
 }
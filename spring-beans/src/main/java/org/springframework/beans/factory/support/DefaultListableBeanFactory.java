@@ -3,6 +3,7 @@ package org.springframework.beans.factory.support;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.TypeConverter;
 import org.springframework.beans.factory.BeanDefinitionStoreException;
+import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
@@ -12,8 +13,8 @@ import org.springframework.core.ResolvableType;
 
 import java.io.Serializable;
 import java.lang.annotation.Annotation;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 
 /**
@@ -164,4 +165,55 @@ public class DefaultListableBeanFactory extends AbstractAutowireCapableBeanFacto
     public Object resolveDependency(DependencyDescriptor descriptor, String requestingBeanName, Set<String> autowiredBeanNames, TypeConverter typeConverter) throws BeansException {
         return null;
     }
+
+    /**
+     * 在给定的ForkJoinPool上并行预实例化所有非懒加载的单例bean。
+     * 根据bean definition的depends-on以及已经登记的依赖关系调度,
+     * 相互独立的bean并发创建。创建期间开启按bean加锁的创建模式,所有bean创建完成后恢复原来的设置,
+     * 所以不能和其它线程的getBean同时调用。
+     * 单例的AsyncFactoryBean只在这里开始异步创建对象,不等待完成。
+     * @param pool 用来创建bean的线程池
+     * @return 关键路径和并行度等统计结果
+     */
+    public ParallelSingletonPreInstantiator.Report preInstantiateSingletonsInParallel(ForkJoinPool pool) throws BeansException {
+        List<String> beanNames = new ArrayList<>();
+        for (String beanName : getBeanDefinitionNames()) {
+            BeanDefinition bd = getBeanDefinition(beanName);
+            if(bd != null && !bd.isAbstract() && bd.isSingleton() && !bd.isLazyInit()){
+                beanNames.add(beanName);
+            }
+        }
+        boolean allowConcurrentSingletonCreation = isAllowConcurrentSingletonCreation();
+        setAllowConcurrentSingletonCreation(true);
+        try{
+            return new ParallelSingletonPreInstantiator(pool).preInstantiate(beanNames,this::getPrerequisiteBeans,beanName -> {
+                if(isFactoryBean(beanName)){
+                    Object factoryBean = getBean(FACTORY_BEAN_PREFIX + beanName);
+                    //异步的FactoryBean在这里开始创建对象,第一次使用时才等待
+                    if(factoryBean instanceof FactoryBean){
+                        startAsyncFactoryBeanObject(beanName,(FactoryBean<?>) factoryBean);
+                    }
+                }else{
+                    getBean(beanName);
+                }
+            });
+        }finally {
+            setAllowConcurrentSingletonCreation(allowConcurrentSingletonCreation);
+        }
+    }
+
+    /**
+     * 返回给定bean创建前必须完成的bean:depends-on加上已经登记的依赖
+     */
+    private Collection<String> getPrerequisiteBeans(String beanName){
+        Set<String> prerequisites = new LinkedHashSet<>();
+        BeanDefinition bd = getBeanDefinition(beanName);
+        if(bd != null && bd.getDependsOn() != null){
+            for (String dependsOn : bd.getDependsOn()) {
+                prerequisites.add(canonicalName(dependsOn));
+            }
+        }
+        Collections.addAll(prerequisites,getDependenciesForBean(beanName));
+        return prerequisites;
+    }
 }
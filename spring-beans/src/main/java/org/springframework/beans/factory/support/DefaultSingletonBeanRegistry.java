@@ -2,12 +2,15 @@ package org.springframework.beans.factory.support;
 
 import com.sun.istack.internal.Nullable;
 import org.springframework.beans.factory.*;
+import org.springframework.core.NamedThreadLocal;
 import org.springframework.core.SimpleAliasRegistry;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 /**
@@ -27,6 +30,10 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class DefaultSingletonBeanRegistry extends SimpleAliasRegistry implements SingletonBeanRegistry {
 
+    private static final int REGISTERED_SINGLETONS_INITIAL_CAPACITY = 256;
+
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
     /**
      * cachee of singleton objects:bean name to bean instarnce
      * 缓存singleton实例:beanName-实例
@@ -35,21 +42,35 @@ public class DefaultSingletonBeanRegistry extends SimpleAliasRegistry implements
 
     /**
      * set of registered singletons,containing the bean name in registration order
-     * 已经注册过的bean
+     * 已经注册过的bean,批量注册时可能整体替换成容量更大的集合,读写都要持有registeredSingletonsMonitor
+     */
+    private Set<String> registeredSingletons = new LinkedHashSet<>(REGISTERED_SINGLETONS_INITIAL_CAPACITY);
+
+    /**
+     * registeredSingletons底层哈希表的容量,HashMap不对外提供,按它的扩容规则跟踪
+     */
+    private int registeredSingletonsCapacity = REGISTERED_SINGLETONS_INITIAL_CAPACITY;
+
+    private final Object registeredSingletonsMonitor = new Object();
+
+    /**
+     * registeredSingletons的不可变快照,每次修改之后原子地替换,读方无锁。
+     * 移除bean之后置为空,下一次读取时再重建,避免逐个销毁时反复复制
      */
-    private final Set<String> registeredSingletons = new LinkedHashSet<>(256);
+    @Nullable
+    private volatile SingletonNames registeredSingletonNames = SingletonNames.EMPTY;
 
     /**
      * cache of singleton factories:bean name to objectFactory
      * 单利工厂缓存
      */
-    private final Map<String,ObjectFactory<?>> singletonFactories = new HashMap<>(16);
+    private final Map<String,ObjectFactory<?>> singletonFactories = new ConcurrentHashMap<>(16);
 
     /**
      * cache of early singleton objects
      * 早期单利对象的缓存
      */
-    private final Map<String,Object> earlySingletonObjects = new HashMap<>(16);
+    private final Map<String,Object> earlySingletonObjects = new ConcurrentHashMap<>(16);
 
     /**
      * names of beans that are currently in creation
@@ -64,14 +85,30 @@ public class DefaultSingletonBeanRegistry extends SimpleAliasRegistry implements
      */
     private final Set<String> inCreationCheckExclusions = Collections.newSetFromMap(new ConcurrentHashMap<>(16));
 
-    /**被抑制的异常列表，可用于关联相关原因*/
-    @Nullable
-    private Set<Exception> suppressedExceptions;
+    /**
+     * 当前线程上的单例创建上下文,收集被抑制的异常,可用于关联相关原因。
+     * 每个线程各自收集,并发创建时不会互相混淆
+     */
+    private final ThreadLocal<SingletonCreationContext> creationContext =
+            new NamedThreadLocal<>("Singleton creation context");
+
+    /**
+     * 当前线程上正在进行的destroySingleton中,已经完成的嵌套销毁(依赖方和内部bean)的总耗时。
+     * 每个bean上报的销毁耗时扣除这部分,嵌套销毁的耗时不会被重复统计
+     */
+    private final ThreadLocal<long[]> nestedDestructionNanos =
+            new NamedThreadLocal<long[]>("Nested singleton destruction time"){
+                @Override
+                protected long[] initialValue() {
+                    return new long[1];
+                }
+            };
 
     /**
-     * 标志指示我们当前是否在destroySingletons中的标志
+     * 标志指示我们当前是否在destroySingletons中的标志。
+     * 在singletonObjects锁下修改,doGetSingleton只持有单个bean的创建锁读取,需要volatile保证可见
      */
-    private boolean singletonsCurrentlyInDestruction = false;
+    private volatile boolean singletonsCurrentlyInDestruction = false;
 
     /**
      * 一次性bean实例：bean名称为一次性实例。
@@ -79,21 +116,153 @@ public class DefaultSingletonBeanRegistry extends SimpleAliasRegistry implements
      */
     private final Map<String,Object> disposableBeans = new LinkedHashMap<>();
 
-    //包含bean名称之间的映射：bean name到bean包含的bean名称集
-    private final Map<String,Set<String>> containedBeanMap = new ConcurrentHashMap<>(16);
+    /**
+     * bean之间的依赖关系:bean name - 依赖它的bean,bean name - 它所依赖的bean,
+     * 以及bean name - 它包含的内部bean,所有方向都建立了索引
+     */
+    private final SingletonDependencyGraph dependencyGraph = new SingletonDependencyGraph();
+
+    /**
+     * 按bean加锁的创建锁:bean name - lock
+     * 只在开启了allowConcurrentSingletonCreation时使用
+     */
+    private final Map<String,ReentrantLock> singletonCreationLocks = new ConcurrentHashMap<>(256);
+
+    /**
+     * 并发创建时创建锁的等待图,用于检测线程之间的死锁
+     */
+    private final SingletonCreationWaitGraph creationWaitGraph = new SingletonCreationWaitGraph();
+
+    /**
+     * 是否允许不同的单例bean并发创建,默认关闭(使用全局的singletonObjects锁)
+     */
+    private volatile boolean allowConcurrentSingletonCreation = false;
+
+    /**
+     * 并行销毁单例时使用的线程池,为空时按顺序销毁
+     */
+    @Nullable
+    private volatile ExecutorService destructionExecutor;
+
+    /**
+     * 单个bean销毁的超时时间(毫秒)
+     */
+    private volatile long singletonDestructionTimeout = 10000;
+
+    /**
+     * 所有单例销毁的总超时时间(毫秒)
+     */
+    private volatile long singletonsDestructionTimeout = 60000;
+
+    /**
+     * 按bean name的hash分片的写锁,为空时所有写操作都使用singletonObjects作为锁。
+     * 加锁顺序:持有singletonObjects时可以再获取分片锁,反过来不行;
+     * 分片锁下只维护缓存,不调用FactoryBean、单例工厂和监听器等外部代码
+     */
+    @Nullable
+    private volatile Object[] singletonMutexShards;
+
+    /**
+     * 采集创建和销毁指标的监听器,为空时不计时
+     */
+    @Nullable
+    private volatile SingletonRegistryListener registryListener;
+
+    /**
+     * 记录单例创建时间线的recorder,为空时不记录
+     */
+    @Nullable
+    private volatile SingletonCreationTimeline creationTimeline;
+
+    /**
+     * 设置是否允许不同的单例bean并发创建。
+     * 开启后getSingleton(String, ObjectFactory)只锁定当前正在创建的bean,
+     * 已经创建好的单例直接无锁读取。
+     */
+    public void setAllowConcurrentSingletonCreation(boolean allowConcurrentSingletonCreation){
+        this.allowConcurrentSingletonCreation = allowConcurrentSingletonCreation;
+    }
+
+    /**
+     * 返回是否允许不同的单例bean并发创建
+     */
+    public boolean isAllowConcurrentSingletonCreation(){
+        return this.allowConcurrentSingletonCreation;
+    }
 
-    /**bean所依赖的bean*/
-    private final Map<String,Set<String>> dependentBeanMap = new ConcurrentHashMap<>(64);
+    /**
+     * 把单例的写操作(registerSingleton,addSingleton,removeSingleton等)按bean name的hash分到给定数量的锁上,
+     * 不同分片上的写操作互不阻塞,已经注册的名称列表只在很短的临界区内维护。
+     * 需要在注册单例之前设置,通常和allowConcurrentSingletonCreation一起开启。
+     * @param shards 分片数,必须是2的幂;传入1表示不分片
+     */
+    public void setSingletonMutexShards(int shards){
+        Assert.isTrue(shards > 0 && (shards & (shards - 1)) == 0,"shard count must be a positive power of two");
+        if(shards == 1){
+            this.singletonMutexShards = null;
+            return;
+        }
+        Object[] mutexes = new Object[shards];
+        for (int i = 0; i < shards; i++) {
+            mutexes[i] = new Object();
+        }
+        this.singletonMutexShards = mutexes;
+    }
 
+    /**
+     * 设置采集单例创建和销毁指标的监听器,传入null表示关闭
+     * @see SingletonRegistryStatistics
+     */
+    public void setRegistryListener(@Nullable SingletonRegistryListener registryListener){
+        this.registryListener = registryListener;
+    }
 
-    private final Map<String,Set<String>> dependenciesForBeanMap = new ConcurrentHashMap<>(64);
+    @Nullable
+    public SingletonRegistryListener getRegistryListener(){
+        return this.registryListener;
+    }
+
+    /**
+     * 设置记录单例创建时间线的recorder,传入null表示关闭
+     */
+    public void setCreationTimeline(@Nullable SingletonCreationTimeline creationTimeline){
+        this.creationTimeline = creationTimeline;
+    }
+
+    @Nullable
+    public SingletonCreationTimeline getCreationTimeline(){
+        return this.creationTimeline;
+    }
+
+    /**
+     * 设置并行销毁单例使用的线程池。设置之后destroySingletons会按依赖关系分波并行销毁
+     */
+    public void setDestructionExecutor(@Nullable ExecutorService destructionExecutor){
+        this.destructionExecutor = destructionExecutor;
+    }
+
+    /**
+     * 设置并行销毁时单个bean的超时时间(毫秒)
+     */
+    public void setSingletonDestructionTimeout(long singletonDestructionTimeout){
+        Assert.isTrue(singletonDestructionTimeout > 0,"destruction timeout must be positive");
+        this.singletonDestructionTimeout = singletonDestructionTimeout;
+    }
+
+    /**
+     * 设置并行销毁时所有单例的总超时时间(毫秒)
+     */
+    public void setSingletonsDestructionTimeout(long singletonsDestructionTimeout){
+        Assert.isTrue(singletonsDestructionTimeout > 0,"destruction timeout must be positive");
+        this.singletonsDestructionTimeout = singletonsDestructionTimeout;
+    }
 
     //Register the given existing object as singleton in the bean registry,under the given bean name.
     @Override
     public void registerSingleton(String beanName, Object singletonObject) {
         Assert.notNull(beanName,"bean name must not be null");
         Assert.notNull(singletonObject,"singleton object must not be null");
-        synchronized (this.singletonObjects){
+        synchronized (getSingletonMutex(beanName)){
             //获取已经注册过的bean
             Object oldObject = this.singletonObjects.get(beanName);
             if(oldObject != null){
@@ -104,9 +273,60 @@ public class DefaultSingletonBeanRegistry extends SimpleAliasRegistry implements
         }
     }
 
+    /**
+     * 批量注册已经创建好的单例对象。
+     * 先校验整批数据,再在一次加锁中发布:要么全部注册成功,要么一个都不注册。
+     * @param singletons bean name - 单例对象,按迭代顺序登记
+     * @throws IllegalStateException 如果有任意一个名称已经注册过单例
+     */
+    public void registerSingletons(Map<String,Object> singletons){
+        Assert.notNull(singletons,"singletons must not be null");
+        singletons.forEach((beanName,singletonObject) -> {
+            Assert.notNull(beanName,"bean name must not be null");
+            Assert.notNull(singletonObject,"singleton object for bean '" + beanName + "' must not be null");
+        });
+        if(singletons.isEmpty()){
+            return;
+        }
+        synchronizedOnAllSingletonMutexes(() -> {
+            List<String> conflicts = null;
+            for (String beanName : singletons.keySet()) {
+                if(this.singletonObjects.containsKey(beanName)){
+                    if(conflicts == null){
+                        conflicts = new ArrayList<>();
+                    }
+                    conflicts.add(beanName);
+                }
+            }
+            if(conflicts != null){
+                throw new IllegalStateException("could not register " + singletons.size() +
+                        " singletons:there are already objects bound under bean names " + conflicts);
+            }
+            //ConcurrentHashMap没有按总数扩容的方法,putAll至少按本批的大小一次扩容到位
+            this.singletonObjects.putAll(singletons);
+            List<String> added = new ArrayList<>(singletons.size());
+            for (String beanName : singletons.keySet()) {
+                this.singletonFactories.remove(beanName);
+                this.earlySingletonObjects.remove(beanName);
+            }
+            synchronized (this.registeredSingletonsMonitor){
+                ensureRegisteredSingletonsCapacity(this.registeredSingletons.size() + singletons.size());
+                for (String beanName : singletons.keySet()) {
+                    if(this.registeredSingletons.add(beanName)){
+                        added.add(beanName);
+                    }
+                }
+                //整批名称只发布一次快照
+                SingletonNames names = this.registeredSingletonNames;
+                this.registeredSingletonNames = (names != null ? names.appendAll(added) :
+                        new SingletonNames(StringUtils.toStringArray(this.registeredSingletons)));
+            }
+        });
+    }
+
     //Add the given singleton object to the singleton cache of this factory
     protected void addSingleton(String beanName,Object singletonObject){
-        synchronized (this.singletonObjects){
+        synchronized (getSingletonMutex(beanName)){
             //放入缓存bean
             this.singletonObjects.put(beanName,singletonObject);
             //将该bean所对应的bean工厂移除
@@ -114,7 +334,7 @@ public class DefaultSingletonBeanRegistry extends SimpleAliasRegistry implements
             //将缓存到该还没有注册的bean移除
             this.earlySingletonObjects.remove(beanName);
             //将已经注册了的bean的名称加入到该缓存中
-            this.registeredSingletons.add(beanName);
+            addRegisteredSingleton(beanName);
         }
     }
 
@@ -126,11 +346,11 @@ public class DefaultSingletonBeanRegistry extends SimpleAliasRegistry implements
      */
     protected void addSingletonFactory(String beanName,ObjectFactory<?> singletonFactory){
         Assert.notNull(singletonFactory,"singleton factory must not be nulll");
-        synchronized (this.singletonObjects){
+        synchronized (getSingletonMutex(beanName)){
             if(!this.singletonObjects.containsKey(beanName)){
                 this.singletonFactories.put(beanName,singletonFactory);
                 this.earlySingletonObjects.remove(beanName);
-                this.registeredSingletons.add(beanName);
+                addRegisteredSingleton(beanName);
             }
         }
     }
@@ -143,6 +363,10 @@ public class DefaultSingletonBeanRegistry extends SimpleAliasRegistry implements
 
     /**
      * 获取单利bean
+     *
+     * 三级缓存的读取不加锁:单例 -> 早期引用 -> 单例工厂。
+     * 单例工厂通过CAS移除来保证只有一个线程调用它生成早期引用,
+     * 早期引用发布之后如果单例已经创建完成,则以单例为准。
      * @param beanName
      * @param allowEarlyReference 是否应该创建早期参考
      * @return
@@ -153,21 +377,53 @@ public class DefaultSingletonBeanRegistry extends SimpleAliasRegistry implements
         Object singletonObject = this.singletonObjects.get(beanName);
 
         //如果当前bean为空,或者正在创建中
-        if(singletonObjects == null && isSingletonCurrentlyInCreation(beanName)){
-            synchronized (this.singletonObjects){
-                //获取早期的单利对象
-                singletonObject = this.earlySingletonObjects.get(beanName);
-
-                //如果还是为空
-                if(singletonObjects == null && allowEarlyReference){
-                    ObjectFactory<?> objectFactory = this.singletonFactories.get(beanName);
-                    if(objectFactory != null){
-                        //创建bean
+        if(singletonObject == null && isSingletonCurrentlyInCreation(beanName)){
+            //获取早期的单利对象
+            singletonObject = this.earlySingletonObjects.get(beanName);
+            boolean fromSingletonFactory = false;
+
+            //如果还是为空
+            if(singletonObject == null && allowEarlyReference){
+                ObjectFactory<?> objectFactory = this.singletonFactories.get(beanName);
+                //只有成功移除工厂的线程才能创建早期引用
+                if(objectFactory != null && this.singletonFactories.remove(beanName,objectFactory)){
+                    try{
                         singletonObject = objectFactory.getObject();
-                        this.earlySingletonObjects.put(beanName,singletonObject);
-                        this.singletonFactories.remove(beanName);
+                    }catch(RuntimeException e){
+                        //创建失败,把工厂放回去,后续的请求还可以再试
+                        if(!this.singletonObjects.containsKey(beanName)){
+                            this.singletonFactories.putIfAbsent(beanName,objectFactory);
+                        }
+                        throw e;
+                    }
+                    //工厂运行期间单例可能已经创建完成,此时不再发布早期引用
+                    Object fullSingleton = this.singletonObjects.get(beanName);
+                    if(fullSingleton != null){
+                        return fullSingleton;
+                    }
+                    Object existing = this.earlySingletonObjects.putIfAbsent(beanName,singletonObject);
+                    if(existing != null){
+                        singletonObject = existing;
+                    }else{
+                        fromSingletonFactory = true;
                     }
-                }   
+                }
+                else if(objectFactory != null){
+                    //其它线程抢先一步,读取它发布的早期引用
+                    singletonObject = this.earlySingletonObjects.get(beanName);
+                }
+            }
+            //发布之后单例才创建完成时,撤回刚发布的早期引用,以完整的单例为准
+            Object fullSingleton = this.singletonObjects.get(beanName);
+            if(fullSingleton != null){
+                if(singletonObject != null){
+                    this.earlySingletonObjects.remove(beanName,singletonObject);
+                }
+                return fullSingleton;
+            }
+            SingletonRegistryListener listener = this.registryListener;
+            if(listener != null && singletonObject != null){
+                listener.earlyReferenceServed(beanName,fromSingletonFactory);
             }
         }
         return singletonObject;
@@ -177,54 +433,152 @@ public class DefaultSingletonBeanRegistry extends SimpleAliasRegistry implements
     public Object getSingleton(String beanName,ObjectFactory<?> singletonFactory){
         Assert.notNull(beanName,"bean name must not be null");
 
-        synchronized (this.singletonObjects){
+        SingletonRegistryListener listener = this.registryListener;
+        if(!this.allowConcurrentSingletonCreation){
+            long waitStart = (listener != null ? System.nanoTime() : 0);
+            synchronized (this.singletonObjects){
+                if(listener != null){
+                    listener.creationLockAcquired(beanName,System.nanoTime() - waitStart);
+                }
+                return doGetSingleton(beanName,singletonFactory,listener);
+            }
+        }
 
-            //根据beanName获取数据
-            Object singletonObject = this.singletonObjects.get(beanName);
+        //已经创建好的单例,无锁直接返回
+        Object singletonObject = this.singletonObjects.get(beanName);
+        if(singletonObject != null){
+            return singletonObject;
+        }
+        //只锁定当前bean,不同的bean可以并发创建
+        ReentrantLock lock;
+        Thread currentThread = Thread.currentThread();
+        long waitStart = (listener != null ? System.nanoTime() : 0);
+        for(;;){
+            lock = getSingletonCreationLock(beanName);
+            if(!lock.tryLock()){
+                //等待之前检查是否会和其它正在创建的线程形成死锁
+                String cycle = this.creationWaitGraph.startWaiting(beanName,currentThread);
+                if(cycle != null){
+                    //有早期引用时像单线程的循环引用一样使用早期引用,否则立即失败
+                    Object earlyReference = getSingleton(beanName,true);
+                    if(earlyReference != null){
+                        return earlyReference;
+                    }
+                    throw new BeanCurrentlyInCreationException(beanName,
+                            "Deadlock between concurrently created singletons: " + cycle);
+                }
+                try{
+                    lock.lock();
+                }finally {
+                    this.creationWaitGraph.stopWaiting(currentThread);
+                }
+            }
+            //锁在获取之前已经被清理掉时,其它线程可能已经拿到了新的锁,换成当前登记的锁重新获取
+            if(this.singletonCreationLocks.get(beanName) == lock){
+                break;
+            }
+            lock.unlock();
+        }
+        try{
+            this.creationWaitGraph.acquired(beanName,currentThread);
+            if(listener != null){
+                listener.creationLockAcquired(beanName,System.nanoTime() - waitStart);
+            }
+            return doGetSingleton(beanName,singletonFactory,listener);
+        }finally {
+            //先从等待图中移除再释放锁,图中记录的持有者不会过期
+            if(lock.getHoldCount() == 1){
+                this.creationWaitGraph.released(beanName,currentThread);
+            }
+            lock.unlock();
+            pruneSingletonCreationLock(beanName,lock);
+        }
+    }
 
-            if(singletonObject == null){
+    /**
+     * 返回创建锁的等待图,同一个包内的其它创建过程也可以在这里登记,一起检测死锁
+     */
+    SingletonCreationWaitGraph getCreationWaitGraph(){
+        return this.creationWaitGraph;
+    }
 
-                if(this.singletonsCurrentlyInDestruction){
-                    throw new BeanCreationNotAllowedException(beanName,"当这个工厂的单例处于破坏状态时不允许使用单例bean创建" +
-                            "(不要在destroy方法实现中从BeanFactory请求bean）");
-                }
+    /**
+     * 返回给定bean的创建锁
+     */
+    protected ReentrantLock getSingletonCreationLock(String beanName){
+        return this.singletonCreationLocks.computeIfAbsent(beanName, k -> new ReentrantLock());
+    }
 
-                //校验当前bean是否在创建名单之外,并且将该beanName加入到创建缓存中
-                beforeSingletonCreation(beanName);
+    /**
+     * 没有线程持有或等待时移除给定bean的创建锁。
+     * 移除之后仍然拿着旧锁的线程在获取锁之后会发现它已经不是登记的锁,从而换成新锁重新获取,
+     * 所以同一个bean不会被两个线程同时创建
+     */
+    private void pruneSingletonCreationLock(String beanName,ReentrantLock lock){
+        if(!lock.isLocked() && !lock.hasQueuedThreads()){
+            this.singletonCreationLocks.remove(beanName,lock);
+        }
+    }
 
-                boolean newSingleton = false;
-                boolean recordSuppressedException = this.suppressedExceptions == null;
-                if(recordSuppressedException){
-                    this.suppressedExceptions = new LinkedHashSet<>();
+    /**
+     * 在持有创建锁的情况下获取或创建单例
+     */
+    private Object doGetSingleton(String beanName,ObjectFactory<?> singletonFactory,
+                                  @Nullable SingletonRegistryListener listener){
+
+        //根据beanName获取数据
+        Object singletonObject = this.singletonObjects.get(beanName);
+
+        if(singletonObject == null){
+
+            if(this.singletonsCurrentlyInDestruction){
+                throw new BeanCreationNotAllowedException(beanName,"当这个工厂的单例处于破坏状态时不允许使用单例bean创建" +
+                        "(不要在destroy方法实现中从BeanFactory请求bean）");
+            }
+
+            //校验当前bean是否在创建名单之外,并且将该beanName加入到创建缓存中
+            beforeSingletonCreation(beanName);
+
+            boolean newSingleton = false;
+            SingletonCreationContext context = this.creationContext.get();
+            if(context == null){
+                context = new SingletonCreationContext();
+                this.creationContext.set(context);
+            }
+            //只有最外层的创建负责收集被抑制的异常
+            boolean recordSuppressedException = (context.depth++ == 0);
+            try{
+                long start = (listener != null ? System.nanoTime() : 0);
+                singletonObject = singletonFactory.getObject();
+                newSingleton = true;
+                if(listener != null){
+                    listener.singletonCreated(beanName,System.nanoTime() - start);
                 }
-                try{
-                    singletonObject = singletonFactory.getObject();
-                    newSingleton = true;
-                }catch(IllegalStateException e){
-                    singletonObject = this.singletonObjects.get(beanName);
-                    if(singletonObject == null){
-                        throw e;
-                    }
-                }catch (BeanCreationException e){
-                    if(recordSuppressedException){
-                        for (Exception suppressedException : this.suppressedExceptions) {
-                            e.addRelatedCause(suppressedException);
-                        }
-                    }
+            }catch(IllegalStateException e){
+                singletonObject = this.singletonObjects.get(beanName);
+                if(singletonObject == null){
                     throw e;
-                }finally {
-                    if(recordSuppressedException){
-                        this.suppressedExceptions = null;
+                }
+            }catch (BeanCreationException e){
+                if(recordSuppressedException && context.suppressedExceptions != null){
+                    for (Exception suppressedException : context.suppressedExceptions) {
+                        e.addRelatedCause(suppressedException);
                     }
-                    //TODO 检查该bean是否正在销毁的数据 并且 移除在当前正在创建的bean的缓存map
-                    afterSingletonCreation(beanName);
                 }
-                if(newSingleton){
-                    addSingleton(beanName,singletonObject);
+                throw e;
+            }finally {
+                context.depth--;
+                if(recordSuppressedException){
+                    context.suppressedExceptions = null;
                 }
+                //TODO 检查该bean是否正在销毁的数据 并且 移除在当前正在创建的bean的缓存map
+                afterSingletonCreation(beanName);
+            }
+            if(newSingleton){
+                addSingleton(beanName,singletonObject);
             }
-            return singletonObject;
         }
+        return singletonObject;
     }
 
     /**
@@ -232,10 +586,12 @@ public class DefaultSingletonBeanRegistry extends SimpleAliasRegistry implements
      * @param ex
      */
     protected void onSuppressedException(Exception ex){
-        synchronized (this.singletonObjects){
-            if(this.suppressedExceptions != null){
-                this.suppressedExceptions.add(ex);
+        SingletonCreationContext context = this.creationContext.get();
+        if(context != null && context.depth > 0){
+            if(context.suppressedExceptions == null){
+                context.suppressedExceptions = new LinkedHashSet<>();
             }
+            context.suppressedExceptions.add(ex);
         }
     }
 
@@ -244,11 +600,15 @@ public class DefaultSingletonBeanRegistry extends SimpleAliasRegistry implements
      * @param beanName
      */
     protected void removeSingleton(String beanName){
-        synchronized (this.singletonObjects){
+        synchronized (getSingletonMutex(beanName)){
             this.singletonObjects.remove(beanName);
             this.singletonFactories.remove(beanName);
             this.earlySingletonObjects.remove(beanName);
-            this.registeredSingletons.remove(beanName);
+            removeRegisteredSingleton(beanName);
+        }
+        ReentrantLock lock = this.singletonCreationLocks.get(beanName);
+        if(lock != null){
+            pruneSingletonCreationLock(beanName,lock);
         }
     }
 
@@ -259,14 +619,74 @@ public class DefaultSingletonBeanRegistry extends SimpleAliasRegistry implements
 
     @Override
     public String[] getSingletonNames(){
-        synchronized (this.singletonObjects){
-            return StringUtils.toStringArray(this.registeredSingletons);
-        }
+        return getRegisteredSingletonNames().toArray();
     }
+
     @Override
     public int getSingletonCount() {
-        synchronized (this.singletonObjects){
-            return this.registeredSingletons.size();
+        return getRegisteredSingletonNames().size;
+    }
+
+    /**
+     * 返回当前已经注册的单例名称的快照,只有在移除bean之后的第一次读取才需要加锁重建
+     */
+    private SingletonNames getRegisteredSingletonNames(){
+        SingletonNames names = this.registeredSingletonNames;
+        if(names == null){
+            synchronized (this.registeredSingletonsMonitor){
+                names = this.registeredSingletonNames;
+                if(names == null){
+                    names = new SingletonNames(StringUtils.toStringArray(this.registeredSingletons));
+                    this.registeredSingletonNames = names;
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * 登记已经注册的bean的名称并发布新的快照
+     */
+    private void addRegisteredSingleton(String beanName){
+        synchronized (this.registeredSingletonsMonitor){
+            if(this.registeredSingletons.add(beanName)){
+                SingletonNames names = this.registeredSingletonNames;
+                this.registeredSingletonNames = (names != null ? names.append(beanName) :
+                        new SingletonNames(StringUtils.toStringArray(this.registeredSingletons)));
+            }
+        }
+    }
+
+    /**
+     * 保证registeredSingletons放入expectedSize个名称时不会逐步翻倍扩容,容量不够时按最终大小重建一次。
+     * 调用方持有registeredSingletonsMonitor
+     */
+    private void ensureRegisteredSingletonsCapacity(int expectedSize){
+        int capacity = this.registeredSingletonsCapacity;
+        //逐个注册时HashMap在size超过容量的3/4时已经自行翻倍
+        while(capacity < MAXIMUM_CAPACITY && this.registeredSingletons.size() > capacity / 4 * 3){
+            capacity <<= 1;
+        }
+        int requiredCapacity = capacity;
+        while(requiredCapacity < MAXIMUM_CAPACITY && expectedSize > requiredCapacity / 4 * 3){
+            requiredCapacity <<= 1;
+        }
+        if(requiredCapacity != capacity){
+            Set<String> grown = new LinkedHashSet<>(requiredCapacity);
+            grown.addAll(this.registeredSingletons);
+            this.registeredSingletons = grown;
+        }
+        this.registeredSingletonsCapacity = requiredCapacity;
+    }
+
+    /**
+     * 移除已经注册的bean的名称并作废当前快照
+     */
+    private void removeRegisteredSingleton(String beanName){
+        synchronized (this.registeredSingletonsMonitor){
+            if(this.registeredSingletons.remove(beanName)){
+                this.registeredSingletonNames = null;
+            }
         }
     }
 
@@ -299,10 +719,18 @@ public class DefaultSingletonBeanRegistry extends SimpleAliasRegistry implements
         if(!this.inCreationCheckExclusions.contains(beanName)&& !this.singletonsCurrentlyInCreation.add(beanName)){
             throw new BeanCurrentlyInCreationException(beanName);
         }
+        SingletonCreationTimeline timeline = this.creationTimeline;
+        if(timeline != null){
+            timeline.spanStarted(beanName,SingletonCreationTimeline.CATEGORY_SINGLETON);
+        }
     }
 
     //Callback after singleton creation
     protected void afterSingletonCreation(String beanName){
+        SingletonCreationTimeline timeline = this.creationTimeline;
+        if(timeline != null){
+            timeline.spanFinished(beanName);
+        }
         if(!this.inCreationCheckExclusions.contains(beanName) && !this.singletonsCurrentlyInCreation.remove(beanName)){
             throw new IllegalStateException("Singleton '" + beanName + "' isn't currently in creation");
         }
@@ -318,14 +746,10 @@ public class DefaultSingletonBeanRegistry extends SimpleAliasRegistry implements
     }
 
     public void registerContainedBean(String containedBeanName,String containingBeanName){
-        synchronized (this.containedBeanMap){
-            Set<String> strings = this.containedBeanMap.
-                    computeIfAbsent(containedBeanName, k -> new LinkedHashSet<>(8));
-            if(!strings.add(containedBeanName)){
-                return;
-            }
-            this.registerDependentBean(containedBeanName,containingBeanName);
+        if(!this.dependencyGraph.addContainedBean(containingBeanName,containedBeanName)){
+            return;
         }
+        this.registerDependentBean(containedBeanName,containingBeanName);
     }
 
     /**
@@ -333,16 +757,7 @@ public class DefaultSingletonBeanRegistry extends SimpleAliasRegistry implements
      */
     public void registerDependentBean(String beanName,String dependentBeanName){
         String cononicalName = canonicalName(beanName);
-        synchronized (this.dependentBeanMap){
-            Set<String> strings = this.dependentBeanMap.computeIfAbsent(cononicalName, k -> new LinkedHashSet<>(8));
-            if(!strings.add(dependentBeanName)){
-                return;
-            }
-            synchronized (this.dependenciesForBeanMap){
-                Set<String> strings1 = this.dependenciesForBeanMap.computeIfAbsent(dependentBeanName, k -> new LinkedHashSet<>(8));
-                strings1.add(cononicalName);
-            }
-        }
+        this.dependencyGraph.addDependency(cononicalName,dependentBeanName);
     }
 
     /**
@@ -352,69 +767,43 @@ public class DefaultSingletonBeanRegistry extends SimpleAliasRegistry implements
      * @return
      */
     protected boolean isDependent(String beanName,String dependentBeanName){
-        synchronized (this.dependenciesForBeanMap){
-            return this.isDependent(beanName,dependentBeanName,null);
-        }
-    }
-
-    protected boolean isDependent(String beanName,String dependentBeanName,@Nullable Set<String> alreadySeen){
-        if(alreadySeen != null && alreadySeen.contains(beanName)){
-            return false;
-        }
-        String canonicalName = canonicalName(beanName);
-        Set<String> dependentBeans = this.dependentBeanMap.get(canonicalName);
-        if(dependentBeans == null){
-            return false;
-        }
-        if(dependentBeans.contains(dependentBeanName)){
-            return true;
-        }
-        for (String dependentBean : dependentBeans) {
-            if(alreadySeen == null){
-                alreadySeen = new HashSet<>();
-            }
-            alreadySeen.add(beanName);
-            if(isDependent(dependentBean,dependentBeanName,alreadySeen)){
-                return false;
-            }
-        }
-        return false;
+        return this.dependencyGraph.isReachable(canonicalName(beanName),dependentBeanName);
     }
 
     /**
      * 确定是否已为给定名称注册了依赖bean。
      */
     protected boolean hasDependentBean(String beanName){
-        return this.dependentBeanMap.containsKey(beanName);
+        return this.dependencyGraph.hasDependents(beanName);
     }
 
     /**
      * 返回给定的bean所有的依赖bean
      */
     public String[] getDependentBeans(String beanName){
-        Set<String> strings = this.dependentBeanMap.get(beanName);
-        if(strings == null){
-            return new String[0];
-        }
-        synchronized (this.dependentBeanMap){
-            return StringUtils.toStringArray(strings);
-        }
+        return this.dependencyGraph.dependentsOf(beanName);
+    }
+
+    /**
+     * 返回给定bean包含的内部bean
+     */
+    String[] getContainedBeans(String beanName){
+        return this.dependencyGraph.containedBeansOf(beanName);
     }
 
     /**
      * 返回指定bean所依赖的所有bean的名称（如果有）。
      */
     public String[] getDependenciesForBean(String beanName){
-        Set<String> strings = this.dependenciesForBeanMap.get(beanName);
-        if(strings == null){
-            return new String[0];
-        }
-        synchronized (this.dependenciesForBeanMap){
-            return StringUtils.toStringArray(strings);
-        }
+        return this.dependencyGraph.dependenciesOf(beanName);
     }
 
     public void destroySingletons(){
+        ExecutorService executor = this.destructionExecutor;
+        if(executor != null){
+            destroySingletons(executor,this.singletonDestructionTimeout,this.singletonsDestructionTimeout,TimeUnit.MILLISECONDS);
+            return;
+        }
         synchronized (this.singletonObjects){
             this.singletonsCurrentlyInDestruction = true;
         }
@@ -426,24 +815,225 @@ public class DefaultSingletonBeanRegistry extends SimpleAliasRegistry implements
             //销毁bean
             destroySingleton(disposableBeanNames[i]);
         }
-        this.containedBeanMap.clear();;
-        this.dependentBeanMap.clear();;
-        this.dependenciesForBeanMap.clear();
+        this.dependencyGraph.clear();
+
+        this.clearSingletonCache();
+    }
+
+    /**
+     * 按依赖关系分波并行销毁所有单例。
+     * 依赖方总是在被依赖的bean之前销毁,同一波中的bean相互独立,在给定线程池上并行销毁。
+     * 单个bean的超时从它开始销毁时计算,排队等待线程的时间只受总超时限制。
+     * 超时的bean会被中断,如果它仍在运行,后面的波次不再开始,以免在它还在使用依赖时销毁这些依赖;
+     * 当前线程被中断时同样不再提交新的销毁任务。
+     * @param executor 执行销毁的线程池
+     * @param beanTimeout 单个bean的超时时间
+     * @param overallTimeout 所有单例的总超时时间
+     * @return 超时未完成、因中断或超时而未开始销毁的bean的名称
+     */
+    public Set<String> destroySingletons(ExecutorService executor,long beanTimeout,long overallTimeout,TimeUnit unit){
+        Assert.notNull(executor,"executor must not be null");
+        synchronized (this.singletonObjects){
+            this.singletonsCurrentlyInDestruction = true;
+        }
+        long beanTimeoutNanos = unit.toNanos(beanTimeout);
+        long deadline = System.nanoTime() + unit.toNanos(overallTimeout);
+        Set<String> timedOut = new LinkedHashSet<>();
+        //是否有超时的bean可能还在运行,或者当前线程已经被中断
+        boolean stopped = false;
+
+        for (List<String> wave : computeDestructionWaves()) {
+            if(stopped){
+                timedOut.addAll(wave);
+                continue;
+            }
+            Map<SingletonDestructionTask,Future<?>> tasks = new LinkedHashMap<>(wave.size() * 2);
+            for (String beanName : wave) {
+                if(System.nanoTime() - deadline >= 0){
+                    timedOut.add(beanName);
+                    continue;
+                }
+                SingletonDestructionTask task = new SingletonDestructionTask(beanName,() -> destroySingletonInWave(beanName));
+                tasks.put(task,executor.submit(task));
+            }
+            List<SingletonDestructionTask> abandoned = new ArrayList<>();
+            boolean interrupted = false;
+            for (Map.Entry<SingletonDestructionTask, Future<?>> entry : tasks.entrySet()) {
+                SingletonDestructionTask task = entry.getKey();
+                boolean completed = false;
+                if(!interrupted){
+                    try{
+                        completed = awaitSingletonDestruction(task,entry.getValue(),beanTimeoutNanos,deadline);
+                    }catch(InterruptedException e){
+                        Thread.currentThread().interrupt();
+                        interrupted = true;
+                    }
+                }
+                if(!completed){
+                    entry.getValue().cancel(true);
+                    timedOut.add(task.beanName);
+                    if(!task.cancelIfNotStarted()){
+                        abandoned.add(task);
+                    }
+                }
+            }
+            if(interrupted){
+                stopped = true;
+                continue;
+            }
+            //超时的bean被中断之后在总超时之内结束,才能继续销毁它的依赖
+            try{
+                for (SingletonDestructionTask task : abandoned) {
+                    if(!task.finished.await(Math.max(deadline - System.nanoTime(),0),TimeUnit.NANOSECONDS)){
+                        stopped = true;
+                        break;
+                    }
+                }
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                stopped = true;
+            }
+        }
+        if(!timedOut.isEmpty()){
+            logger.warn("Destruction of singletons " + timedOut + " did not complete in time");
+        }
+
+        this.dependencyGraph.clear();
 
         this.clearSingletonCache();
+        return timedOut;
+    }
+
+    /**
+     * 等待一个bean销毁完成
+     * @return 没有在它自己的超时和总超时之内完成时返回false
+     */
+    private boolean awaitSingletonDestruction(SingletonDestructionTask task,Future<?> future,
+                                              long beanTimeout,long deadline) throws InterruptedException {
+        for(;;){
+            long now = System.nanoTime();
+            //还没有开始的bean先按一个完整的超时时间等待,开始之后按它的开始时间计算
+            long waitUntil = (task.isStarted() ? task.startedAt : now) + beanTimeout;
+            long remaining = Math.min(waitUntil - now,deadline - now);
+            if(remaining <= 0){
+                return false;
+            }
+            try{
+                future.get(remaining,TimeUnit.NANOSECONDS);
+                return true;
+            }catch(TimeoutException e){
+                //重新按开始时间计算
+            }catch(ExecutionException e){
+                logger.error("Destruction of bean with name '" + task.beanName + "' failed",e.getCause());
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 计算销毁的顺序:每一波中的bean,其依赖方都已经在前面的波中销毁。
+     * 依赖关系中存在环时,环上剩余的bean放在最后一波
+     */
+    private List<List<String>> computeDestructionWaves(){
+        Set<String> beanNames = new LinkedHashSet<>();
+        synchronized (this.disposableBeans){
+            beanNames.addAll(this.disposableBeans.keySet());
+        }
+        this.dependencyGraph.forEachDependents((beanName,dependents) -> {
+            beanNames.add(beanName);
+            Collections.addAll(beanNames,dependents);
+        });
+
+        //每个bean还剩下多少依赖方没有销毁
+        Map<String,Integer> pending = new HashMap<>(beanNames.size() * 2);
+        for (String beanName : beanNames) {
+            pending.put(beanName,0);
+        }
+        Map<String,Set<String>> dependenciesForBean = new HashMap<>(beanNames.size() * 2);
+        this.dependencyGraph.forEachDependents((beanName,dependents) -> {
+            for (String dependent : dependents) {
+                if(!dependent.equals(beanName) && pending.containsKey(dependent) &&
+                        dependenciesForBean.computeIfAbsent(dependent, k -> new LinkedHashSet<>()).add(beanName)){
+                    pending.merge(beanName,1,Integer::sum);
+                }
+            }
+        });
+
+        List<List<String>> waves = new ArrayList<>();
+        List<String> wave = new ArrayList<>();
+        //按注册顺序的倒序销毁,与顺序销毁时保持一致
+        List<String> ordered = new ArrayList<>(beanNames);
+        Collections.reverse(ordered);
+        for (String beanName : ordered) {
+            if(pending.get(beanName) == 0){
+                wave.add(beanName);
+            }
+        }
+        Set<String> scheduled = new HashSet<>(beanNames.size() * 2);
+        while(!wave.isEmpty()){
+            waves.add(wave);
+            scheduled.addAll(wave);
+            List<String> next = new ArrayList<>();
+            for (String beanName : wave) {
+                for (String dependency : dependenciesForBean.getOrDefault(beanName,Collections.emptySet())) {
+                    if(pending.merge(dependency,-1,Integer::sum) == 0){
+                        next.add(dependency);
+                    }
+                }
+            }
+            wave = next;
+        }
+        List<String> remaining = new ArrayList<>();
+        for (String beanName : ordered) {
+            if(!scheduled.contains(beanName)){
+                remaining.add(beanName);
+            }
+        }
+        if(!remaining.isEmpty()){
+            waves.add(remaining);
+        }
+        return waves;
+    }
+
+    /**
+     * 在分波销毁中销毁单个bean,依赖方已经在前面的波中处理,这里不再递归
+     */
+    private void destroySingletonInWave(String beanName){
+        SingletonRegistryListener listener = this.registryListener;
+        long start = (listener != null ? System.nanoTime() : 0);
+        removeSingleton(beanName);
+        DisposableBean disposableBean;
+        synchronized (this.disposableBeans){
+            disposableBean = (DisposableBean) this.disposableBeans.remove(beanName);
+        }
+        if(disposableBean != null){
+            try{
+                disposableBean.destroy();
+            }catch(Exception e){
+                logger.error("Destroy method on bean with name '" + beanName + "' threw an exception", e);
+            }
+        }
+        if(listener != null){
+            listener.singletonDestroyed(beanName,System.nanoTime() - start);
+        }
     }
 
     /**
      * 当前类清除缓存
      */
     protected void clearSingletonCache(){
-        synchronized (this.singletonObjects){
+        synchronizedOnAllSingletonMutexes(() -> {
             this.singletonObjects.clear();
             this.singletonFactories.clear();
             this.earlySingletonObjects.clear();
-            this.registeredSingletons.clear();
+            synchronized (this.registeredSingletonsMonitor){
+                this.registeredSingletons.clear();
+                this.registeredSingletonNames = SingletonNames.EMPTY;
+            }
+            //正在使用的创建锁不能移除,否则另一个线程会拿到新锁并重复创建同一个bean
+            this.singletonCreationLocks.forEach(this::pruneSingletonCreationLock);
             this.singletonsCurrentlyInDestruction = false;
-        }
+        });
     }
 
     /**
@@ -451,7 +1041,27 @@ public class DefaultSingletonBeanRegistry extends SimpleAliasRegistry implements
      * @param beanName
      */
     public void destroySingleton(String beanName){
+        SingletonRegistryListener listener = this.registryListener;
+        if(listener == null){
+            doDestroySingleton(beanName);
+            return;
+        }
+        //外层的嵌套耗时先保存起来,当前bean只统计自己的嵌套销毁
+        long[] nested = this.nestedDestructionNanos.get();
+        long outerNested = nested[0];
+        nested[0] = 0;
+        long start = System.nanoTime();
+        try{
+            doDestroySingleton(beanName);
+        }finally {
+            long elapsed = System.nanoTime() - start;
+            long selfNanos = elapsed - nested[0];
+            nested[0] = outerNested + elapsed;
+            listener.singletonDestroyed(beanName,selfNanos);
+        }
+    }
 
+    private void doDestroySingleton(String beanName){
         //移除bean
         removeSingleton(beanName);
 
@@ -467,16 +1077,10 @@ public class DefaultSingletonBeanRegistry extends SimpleAliasRegistry implements
      */
     protected void destroyBean(String beanName,@Nullable DisposableBean bean){
 
-        //获取到当前bean name所依赖的bean
-        Set<String> dependencies;
-        synchronized (this.dependentBeanMap){
-            dependencies = this.dependenciesForBeanMap.remove(beanName);
-        }
-        if(dependencies != null){
-            //然后依次进行销毁
-            for (String dependency : dependencies) {
-                destroySingleton(dependency);
-            }
+        //先销毁所有依赖于当前bean的bean
+        String[] dependents = this.dependencyGraph.removeDependents(beanName);
+        for (String dependent : dependents) {
+            destroySingleton(dependent);
         }
 
         //在这里才是进行真正的销毁,用DisposableBean
@@ -488,33 +1092,180 @@ public class DefaultSingletonBeanRegistry extends SimpleAliasRegistry implements
             }
         }
 
-        Set<String> containedBeans;
-        synchronized (this.containedBeanMap){
-            containedBeans = this.containedBeanMap.remove(beanName);
+        //销毁当前bean包含的内部bean
+        String[] containedBeans = this.dependencyGraph.removeContainedBeans(beanName);
+        for (String containedBean : containedBeans) {
+            destroySingleton(containedBean);
         }
-        if(containedBeans != null){
-            for (String containedBean : containedBeans) {
-                destroySingleton(containedBean);
-            }
+
+        //从其它bean的依赖关系中移除当前bean,只处理与它直接相连的边
+        this.dependencyGraph.removeBean(beanName);
+    }
+
+    /**
+     * 返回全局的单例锁。开启分片之后写操作使用{@link #getSingletonMutex(String)}返回的分片锁,
+     * 这个锁只用于非并发模式下的单例创建和销毁标志
+     */
+    @Override
+    public Object getSingletonMutex() {
+        return this.singletonObjects;
+    }
+
+    /**
+     * 返回保护给定bean的写操作的锁,没有开启分片时就是全局的单例锁
+     */
+    protected Object getSingletonMutex(String beanName){
+        Object[] shards = this.singletonMutexShards;
+        if(shards == null){
+            return this.singletonObjects;
         }
+        int hash = beanName.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & (shards.length - 1)];
+    }
 
-        synchronized (this.dependentBeanMap){
-            for(Iterator<Map.Entry<String, Set<String>>> it = this.dependentBeanMap.entrySet().iterator();it.hasNext();){
-                Map.Entry<String, Set<String>> next = it.next();
-                Set<String> value = next.getValue();
-                value.remove(beanName);
-                if(value.isEmpty()){
-                    it.remove();
-                }
+    /**
+     * 持有所有写锁执行给定的操作,分片锁总是按下标顺序获取
+     */
+    private void synchronizedOnAllSingletonMutexes(Runnable action){
+        Object[] shards = this.singletonMutexShards;
+        if(shards == null){
+            synchronized (this.singletonObjects){
+                action.run();
             }
+        }else{
+            synchronizedOnShards(shards,0,action);
         }
+    }
 
-        this.dependenciesForBeanMap.remove(beanName);
+    private static void synchronizedOnShards(Object[] shards,int index,Runnable action){
+        if(index == shards.length){
+            action.run();
+            return;
+        }
+        synchronized (shards[index]){
+            synchronizedOnShards(shards,index + 1,action);
+        }
     }
 
-    @Override
-    public Object getSingletonMutex() {
-        return this.singletonObjects;
+
+
+    /**
+     * 一个线程上正在进行的单例创建,只在所属线程上访问
+     */
+    private static final class SingletonCreationContext {
+
+        /**
+         * 当前线程上嵌套创建的层数
+         */
+        int depth;
+
+        /**
+         * 最外层创建期间被抑制的异常,第一次出现时才创建
+         */
+        @Nullable
+        Set<Exception> suppressedExceptions;
+    }
+
+    /**
+     * 并行销毁中的一个bean,记录它在线程池中开始和结束的时间点
+     */
+    private static final class SingletonDestructionTask implements Runnable {
+
+        private static final int NEW = 0;
+
+        private static final int STARTED = 1;
+
+        private static final int CANCELLED = 2;
+
+        final String beanName;
+
+        private final Runnable destruction;
+
+        private final AtomicInteger state = new AtomicInteger(NEW);
+
+        /**
+         * 开始销毁时的System.nanoTime(),isStarted()返回true之后有效
+         */
+        volatile long startedAt;
+
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        SingletonDestructionTask(String beanName,Runnable destruction){
+            this.beanName = beanName;
+            this.destruction = destruction;
+        }
+
+        boolean isStarted(){
+            return this.state.get() == STARTED;
+        }
+
+        /**
+         * 取消还没有开始的销毁
+         * @return 已经开始时返回false,此时销毁可能还在运行
+         */
+        boolean cancelIfNotStarted(){
+            return this.state.compareAndSet(NEW,CANCELLED);
+        }
+
+        @Override
+        public void run() {
+            this.startedAt = System.nanoTime();
+            if(!this.state.compareAndSet(NEW,STARTED)){
+                return;
+            }
+            try{
+                this.destruction.run();
+            }finally {
+                this.finished.countDown();
+            }
+        }
     }
 
+
+    /**
+     * 已经注册的单例名称的不可变快照,按注册顺序排列。
+     * 只有最新的快照会被追加,追加写入的位置不在任何旧快照的size之内,因此多个快照可以共享同一个数组
+     */
+    private static final class SingletonNames {
+
+        static final SingletonNames EMPTY = new SingletonNames(new String[0]);
+
+        final String[] names;
+
+        final int size;
+
+        SingletonNames(String[] names){
+            this(names,names.length);
+        }
+
+        private SingletonNames(String[] names,int size){
+            this.names = names;
+            this.size = size;
+        }
+
+        SingletonNames append(String beanName){
+            String[] names = this.names;
+            if(this.size == names.length){
+                names = Arrays.copyOf(names,Math.max(16,this.size * 2));
+            }
+            names[this.size] = beanName;
+            return new SingletonNames(names,this.size + 1);
+        }
+
+        SingletonNames appendAll(List<String> beanNames){
+            String[] names = this.names;
+            int size = this.size + beanNames.size();
+            if(size > names.length){
+                names = Arrays.copyOf(names,Math.max(size,this.size * 2));
+            }
+            for (int i = 0; i < beanNames.size(); i++) {
+                names[this.size + i] = beanNames.get(i);
+            }
+            return new SingletonNames(names,size);
+        }
+
+        String[] toArray(){
+            return Arrays.copyOf(this.names,this.size);
+        }
+    }
 }
@@ -0,0 +1,28 @@
+package org.springframework.beans.factory.support;
+
+/**
+ * FactoryBean对象从缓存中被移除的原因
+ * @see SingletonRegistryListener#factoryBeanObjectEvicted
+ */
+public enum FactoryBeanObjectEvictionCause {
+
+    /**
+     * 创建该对象的FactoryBean本身被移除
+     */
+    REMOVED,
+
+    /**
+     * 包含该FactoryBean的外部bean被移除
+     */
+    CONTAINED,
+
+    /**
+     * 该FactoryBean所依赖的bean被移除
+     */
+    DEPENDENT,
+
+    /**
+     * 整个单例缓存被清空
+     */
+    CLEARED
+}
@@ -0,0 +1,281 @@
+package org.springframework.beans.factory.support;
+
+import com.sun.istack.internal.Nullable;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 非单例PooledFactoryBean的对象池
+ *
+ * 闲置对象放在固定大小的AtomicReferenceArray中,借出和归还都只对单个槽位做CAS,不加锁。
+ * 每个线程从自己的起始槽位开始查找,减少竞争。
+ * 借出的对象按身份以弱引用登记,只有从这个池借出(或者为这个池创建)的对象才能归还,
+ * 借出后没有归还的对象由调用方自己负责。
+ * 闲置超时、池已满时归还以及池被关闭时丢弃的对象,如果实现了DisposableBean或AutoCloseable会被销毁。
+ * @see org.springframework.beans.factory.PooledFactoryBean
+ */
+public final class FactoryBeanObjectPool {
+
+    private static final Log logger = LogFactory.getLog(FactoryBeanObjectPool.class);
+
+    private final AtomicReferenceArray<IdleObject> idleObjects;
+
+    /**
+     * 已经借出、还没有归还的对象
+     */
+    private final Map<BorrowedObject,Boolean> borrowedObjects = new ConcurrentHashMap<>(16);
+
+    private final ReferenceQueue<Object> collectedObjects = new ReferenceQueue<>();
+
+    private final long maxIdleNanos;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder returns = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private final LongAdder drops = new LongAdder();
+
+    /**
+     * 对象池已经被移除,归还的对象直接丢弃
+     */
+    private volatile boolean closed;
+
+
+    FactoryBeanObjectPool(int maxIdle,long maxIdleTimeMillis){
+        this.idleObjects = new AtomicReferenceArray<>(Math.max(maxIdle,0));
+        this.maxIdleNanos = Math.max(maxIdleTimeMillis,0) * 1000000L;
+    }
+
+    /**
+     * 借出一个闲置的对象
+     * @return 池中没有可用的对象时返回null,调用方需要自己创建
+     */
+    @Nullable
+    Object borrow(){
+        int length = this.idleObjects.length();
+        if(length > 0){
+            long now = System.nanoTime();
+            int start = startIndex(length);
+            for (int i = 0; i < length; i++) {
+                int index = (start + i) % length;
+                IdleObject idle = this.idleObjects.get(index);
+                if(idle != null && this.idleObjects.compareAndSet(index,idle,null)){
+                    if(now - idle.returnedAt > this.maxIdleNanos){
+                        this.evictions.increment();
+                        destroy(idle.object);
+                        continue;
+                    }
+                    this.hits.increment();
+                    track(idle.object);
+                    return idle.object;
+                }
+            }
+        }
+        this.misses.increment();
+        return null;
+    }
+
+    /**
+     * 登记为这个池新建的对象,之后可以归还
+     */
+    void track(Object object){
+        Reference<?> collected;
+        while((collected = this.collectedObjects.poll()) != null){
+            this.borrowedObjects.remove(collected);
+        }
+        this.borrowedObjects.put(new BorrowedObject(object,this.collectedObjects),Boolean.TRUE);
+    }
+
+    /**
+     * 归还对象,池已满时丢弃并销毁
+     * @return 是否放入了池中,不是从这个池借出的对象(或者已经归还过)返回false
+     */
+    boolean release(Object object){
+        if(this.borrowedObjects.remove(new BorrowedObject(object,null)) == null){
+            return false;
+        }
+        int length = this.idleObjects.length();
+        if(length > 0 && !this.closed){
+            IdleObject idle = new IdleObject(object,System.nanoTime());
+            int start = startIndex(length);
+            for (int i = 0; i < length; i++) {
+                int index = (start + i) % length;
+                if(this.idleObjects.get(index) == null && this.idleObjects.compareAndSet(index,null,idle)){
+                    //放入的同时对象池被关闭,close可能已经清理过这个槽位
+                    if(this.closed && this.idleObjects.compareAndSet(index,idle,null)){
+                        break;
+                    }
+                    this.returns.increment();
+                    return true;
+                }
+            }
+        }
+        this.drops.increment();
+        destroy(object);
+        return false;
+    }
+
+    /**
+     * 丢弃所有闲置超时的对象
+     * @return 丢弃的个数
+     */
+    public int evictIdle(){
+        long now = System.nanoTime();
+        int evicted = 0;
+        for (int i = 0; i < this.idleObjects.length(); i++) {
+            IdleObject idle = this.idleObjects.get(i);
+            if(idle != null && now - idle.returnedAt > this.maxIdleNanos &&
+                    this.idleObjects.compareAndSet(i,idle,null)){
+                evicted++;
+                destroy(idle.object);
+            }
+        }
+        this.evictions.add(evicted);
+        return evicted;
+    }
+
+    /**
+     * 丢弃并销毁所有闲置的对象,在对象池被移除时调用。之后归还的对象直接丢弃并销毁
+     */
+    void close(){
+        this.closed = true;
+        for (int i = 0; i < this.idleObjects.length(); i++) {
+            IdleObject idle = this.idleObjects.getAndSet(i,null);
+            if(idle != null){
+                this.evictions.increment();
+                destroy(idle.object);
+            }
+        }
+    }
+
+    /**
+     * 销毁被丢弃的对象
+     */
+    private static void destroy(Object object){
+        try{
+            if(object instanceof DisposableBean){
+                ((DisposableBean) object).destroy();
+            }else if(object instanceof AutoCloseable){
+                ((AutoCloseable) object).close();
+            }
+        }catch(Exception e){
+            logger.warn("Destruction of pooled FactoryBean object [" + object + "] threw an exception",e);
+        }
+    }
+
+    private static int startIndex(int length){
+        return (int) ((Thread.currentThread().getId() & Integer.MAX_VALUE) % length);
+    }
+
+    /**
+     * 当前闲置的对象个数
+     */
+    public int getIdleCount(){
+        int count = 0;
+        for (int i = 0; i < this.idleObjects.length(); i++) {
+            if(this.idleObjects.get(i) != null){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 从池中借出对象的次数
+     */
+    public long getHitCount(){
+        return this.hits.sum();
+    }
+
+    /**
+     * 池中没有可用对象,需要新建的次数
+     */
+    public long getMissCount(){
+        return this.misses.sum();
+    }
+
+    /**
+     * 成功归还到池中的次数
+     */
+    public long getReturnCount(){
+        return this.returns.sum();
+    }
+
+    /**
+     * 因闲置超时或者池被关闭而丢弃的闲置对象个数
+     */
+    public long getEvictionCount(){
+        return this.evictions.sum();
+    }
+
+    /**
+     * 归还时池已满或者已经被移除而丢弃的对象个数
+     */
+    public long getDropCount(){
+        return this.drops.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "FactoryBeanObjectPool: idle " + getIdleCount() + "/" + this.idleObjects.length() + ", hits " +
+                getHitCount() + ", misses " + getMissCount() + ", returns " + getReturnCount() +
+                ", evictions " + getEvictionCount() + ", drops " + getDropCount();
+    }
+
+
+    /**
+     * 借出的对象,按身份比较,不阻止对象被回收
+     */
+    private static final class BorrowedObject extends WeakReference<Object> {
+
+        private final int hash;
+
+        BorrowedObject(Object object,@Nullable ReferenceQueue<Object> queue){
+            super(object,queue);
+            this.hash = System.identityHashCode(object);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(this == other){
+                return true;
+            }
+            if(!(other instanceof BorrowedObject)){
+                return false;
+            }
+            Object object = get();
+            return (object != null && object == ((BorrowedObject) other).get());
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+
+    private static final class IdleObject {
+
+        final Object object;
+
+        final long returnedAt;
+
+        IdleObject(Object object,long returnedAt){
+            this.object = object;
+            this.returnedAt = returnedAt;
+        }
+    }
+}
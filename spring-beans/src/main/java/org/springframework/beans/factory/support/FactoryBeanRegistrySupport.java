@@ -3,14 +3,22 @@ package org.springframework.beans.factory.support;
 
 import com.sun.istack.internal.Nullable;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.AsyncFactoryBean;
 import org.springframework.beans.factory.BeanCreationException;
 import org.springframework.beans.factory.BeanCurrentlyInCreationException;
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.FactoryBeanNotInitializedException;
+import org.springframework.beans.factory.PooledFactoryBean;
 
 import java.security.*;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * 在defaultSingletonBeanRegistry的基础上增加了对facotryBean的特殊处理
@@ -22,6 +30,30 @@ public abstract class FactoryBeanRegistrySupport extends DefaultSingletonBeanReg
      */
     private final Map<String,Object> factoryBeanObjectCache = new ConcurrentHashMap<>(16);
 
+    /**
+     * 正在创建的单例FactoryBean对象,factoryBean name - 创建过程。
+     * 同一个bean的并发请求共享一次创建,不同bean之间互不阻塞
+     */
+    private final Map<String,FactoryBeanObjectCreation> factoryBeanObjectsInCreation = new ConcurrentHashMap<>(16);
+
+    /**
+     * 已经开始异步创建的单例对象,factoryBean name - 还没有经过后处理的对象。
+     * 使用时等待完成,对象放入FactoryBean对象缓存之后才移除;失败或者超时时保留,
+     * 之后的获取得到同样的结果,不会再次调用getObjectAsync()
+     */
+    private final Map<String,CompletableFuture<Object>> asyncFactoryBeanObjects = new ConcurrentHashMap<>(16);
+
+    /**
+     * 非单例PooledFactoryBean的对象池,factoryBean name - 闲置对象池
+     */
+    private final Map<String,FactoryBeanObjectPool> factoryBeanObjectPools = new ConcurrentHashMap<>(16);
+
+    /**
+     * FactoryBean创建的对象的类型,factoryBean name - FactoryBean实例及其对象类型。
+     * 只对同一个FactoryBean实例有效,bean被移除时失效
+     */
+    private final Map<String,FactoryBeanObjectType> factoryBeanObjectTypeCache = new ConcurrentHashMap<>(16);
+
     /**
      * 确定给定FactoryBean的类型
      */
@@ -40,6 +72,28 @@ public abstract class FactoryBeanRegistrySupport extends DefaultSingletonBeanReg
         }
     }
 
+    /**
+     * 确定给定名称的FactoryBean的类型。
+     * FactoryBean完全创建之后,同一个实例只调用一次getObjectType(),之后直接返回缓存的类型;
+     * 创建过程中返回的类型可能还不够具体,无法确定类型(返回null)时也一样,都不缓存,下次重新获取
+     */
+    @Nullable
+    protected Class<?> getTypeForFactoryBean(String beanName,FactoryBean<?> factoryBean){
+        FactoryBeanObjectType cached = this.factoryBeanObjectTypeCache.get(beanName);
+        if(cached != null && cached.factoryBean == factoryBean){
+            return cached.objectType;
+        }
+        Class<?> objectType = getTypeForFactoryBean(factoryBean);
+        SingletonRegistryListener listener = getRegistryListener();
+        if(listener != null){
+            listener.factoryBeanObjectTypeResolved(beanName,System.getSecurityManager() != null);
+        }
+        if(objectType != null && containsSingleton(beanName) && !isSingletonCurrentlyInCreation(beanName)){
+            this.factoryBeanObjectTypeCache.put(beanName,new FactoryBeanObjectType(factoryBean,objectType));
+        }
+        return objectType;
+    }
+
     /**
      * 获取要从给定FactoryBean公开的对象（如果在缓存形式中可用）。 快速检查最小同步。
      */
@@ -55,48 +109,53 @@ public abstract class FactoryBeanRegistrySupport extends DefaultSingletonBeanReg
      * @return
      */
     protected Object getObjectFromFactoryBean(FactoryBean<?> factoryBean,String beanName,boolean shouldPostProcess){
+        SingletonCreationTimeline timeline = getCreationTimeline();
+        if(timeline == null){
+            return resolveObjectFromFactoryBean(factoryBean,beanName,shouldPostProcess);
+        }
+        timeline.spanStarted(beanName,SingletonCreationTimeline.CATEGORY_FACTORY_BEAN_OBJECT);
+        try{
+            return resolveObjectFromFactoryBean(factoryBean,beanName,shouldPostProcess);
+        }finally {
+            timeline.spanFinished(beanName);
+        }
+    }
+
+    private Object resolveObjectFromFactoryBean(FactoryBean<?> factoryBean,String beanName,boolean shouldPostProcess){
         //当前bean是单利,并且要在单利缓存里面
         if(factoryBean.isSingleton() && containsSingleton(beanName)){
-            //获取父类缓存singlton bean的map进行加锁
-            synchronized (super.getSingletonMutex()){
+            for(;;){
                 Object object = this.factoryBeanObjectCache.get(beanName);
-                if(object == null){
-
-                    object = this.doGetObjectFromFactoryBean(factoryBean,beanName);
-
-                    //当前缓存的factory
-                    Object alreadyThere = this.factoryBeanObjectCache.get(beanName);
-
-                    if(alreadyThere != null){
-                        object = alreadyThere;
-                    }else{
-                        if(shouldPostProcess){
-                            //返回指定的单例bean当前是否正在创建
-                            if(isSingletonCurrentlyInCreation(beanName)){
-                                return object;
-                            }
-                            //校验当前bean是否在创建名单之外,并且将该beanName加入到创建缓存中
-                            beforeSingletonCreation(beanName);
-
-                            try{
-                                object = this.postProcessObjectFromFactoryBean(object,beanName);
-                            }catch(Exception e){
-                                throw new BeanCreationException("");
-                            }finally {
-                                //检查该bean是否正在销毁的数据 并且 移除在当前正在创建的bean的缓存map
-                                afterSingletonCreation(beanName);
-                            }
-                            //当前bean对象是否在单利bean缓存中
-                            if(containsSingleton(beanName)){
-                                //将该beanname - factory放入缓存
-                                this.factoryBeanObjectCache.put(beanName,object);
-                            }
-                        }
-                    }
+                if(object != null){
+                    return object;
+                }
+                FactoryBeanObjectCreation creation = new FactoryBeanObjectCreation();
+                FactoryBeanObjectCreation existing = this.factoryBeanObjectsInCreation.putIfAbsent(beanName,creation);
+                if(existing == null){
+                    return createSingletonObjectFromFactoryBean(factoryBean,beanName,shouldPostProcess,creation);
+                }
+                if(existing.creator == Thread.currentThread()){
+                    //同一个线程重入,例如getObject中又获取了自身,不能等待自己
+                    return doCreateSingletonObjectFromFactoryBean(factoryBean,beanName,shouldPostProcess);
+                }
+                object = awaitFactoryBeanObject(beanName,existing);
+                //为空说明对象没有放入缓存(例如循环引用时提前返回),重新获取
+                if(object != null){
+                    return object;
                 }
-                return object;
             }
         }else{
+            //只有经过后处理的对象才放入对象池,借出的对象也总是经过后处理的
+            FactoryBeanObjectPool pool = null;
+            if(shouldPostProcess && factoryBean instanceof PooledFactoryBean){
+                PooledFactoryBean<?> pooledFactoryBean = (PooledFactoryBean<?>) factoryBean;
+                pool = this.factoryBeanObjectPools.computeIfAbsent(beanName,
+                        k -> new FactoryBeanObjectPool(pooledFactoryBean.getMaxIdle(),pooledFactoryBean.getMaxIdleTime()));
+                Object object = pool.borrow();
+                if(object != null){
+                    return object;
+                }
+            }
             Object object = doGetObjectFromFactoryBean(factoryBean, beanName);
             if(shouldPostProcess){
                 try{
@@ -105,30 +164,228 @@ public abstract class FactoryBeanRegistrySupport extends DefaultSingletonBeanReg
                     throw new BeanCreationException(beanName,"");
                 }
             }
+            if(pool != null){
+                pool.track(object);
+            }
+            return object;
+        }
+    }
+
+    /**
+     * 当前线程负责创建给定的单例FactoryBean对象,完成后通知等待的线程
+     */
+    private Object createSingletonObjectFromFactoryBean(FactoryBean<?> factoryBean,String beanName,boolean shouldPostProcess,
+                                                        FactoryBeanObjectCreation creation){
+        Thread currentThread = Thread.currentThread();
+        String creationKey = getFactoryBeanObjectCreationKey(beanName);
+        getCreationWaitGraph().acquired(creationKey,currentThread);
+        try{
+            Object object = doCreateSingletonObjectFromFactoryBean(factoryBean,beanName,shouldPostProcess);
+            creation.future.complete(this.factoryBeanObjectCache.get(beanName) == object ? object : null);
             return object;
+        }catch(RuntimeException | Error ex){
+            creation.future.completeExceptionally(ex);
+            throw ex;
+        }finally {
+            getCreationWaitGraph().released(creationKey,currentThread);
+            this.factoryBeanObjectsInCreation.remove(beanName,creation);
         }
     }
 
+    /**
+     * 等待其他线程创建给定的单例FactoryBean对象
+     * @return 创建的对象,没有放入缓存时返回null
+     */
+    @Nullable
+    private Object awaitFactoryBeanObject(String beanName,FactoryBeanObjectCreation creation){
+        Thread waitingThread = null;
+        if(!creation.future.isDone()){
+            waitingThread = Thread.currentThread();
+            //等待之前检查是否会和其它正在创建的线程形成死锁
+            String cycle = getCreationWaitGraph().startWaiting(getFactoryBeanObjectCreationKey(beanName),waitingThread);
+            if(cycle != null){
+                throw new BeanCurrentlyInCreationException(beanName,
+                        "Deadlock between concurrently created FactoryBean objects: " + cycle);
+            }
+        }
+        try{
+            return creation.future.join();
+        }catch(CompletionException ex){
+            Throwable cause = ex.getCause();
+            if(cause instanceof RuntimeException){
+                throw (RuntimeException) cause;
+            }
+            if(cause instanceof Error){
+                throw (Error) cause;
+            }
+            throw new BeanCreationException(beanName,"FactoryBean threw exception on object creation",cause);
+        }finally {
+            if(waitingThread != null){
+                getCreationWaitGraph().stopWaiting(waitingThread);
+            }
+        }
+    }
+
+    /**
+     * 把从非单例PooledFactoryBean获取的对象归还到它的对象池。
+     * 没有对应的对象池(不是PooledFactoryBean或者已经被移除)、对象不是从该对象池获取的、
+     * 或者没有经过后处理时不会放入对象池
+     * @param beanName FactoryBean的名称或别名
+     * @param object 之前获取的对象
+     * @return 是否放入了对象池
+     */
+    public boolean returnFactoryBeanObject(String beanName,Object object){
+        FactoryBeanObjectPool pool = this.factoryBeanObjectPools.get(canonicalName(beanName));
+        return (pool != null && object != null && pool.release(object));
+    }
+
+    /**
+     * 返回给定FactoryBean的对象池,用于查看命中率等指标
+     */
+    @Nullable
+    public FactoryBeanObjectPool getFactoryBeanObjectPool(String beanName){
+        return this.factoryBeanObjectPools.get(canonicalName(beanName));
+    }
+
+    /**
+     * 丢弃所有对象池中闲置超时的对象,可以由定时任务调用
+     * @return 丢弃的个数
+     */
+    public int evictIdleFactoryBeanObjects(){
+        int evicted = 0;
+        for (FactoryBeanObjectPool pool : this.factoryBeanObjectPools.values()) {
+            evicted += pool.evictIdle();
+        }
+        return evicted;
+    }
+
+    /**
+     * 如果给定的FactoryBean是单例的AsyncFactoryBean,提前开始异步创建它的对象,不等待完成
+     * @return 是否开始了异步创建(或者之前已经开始)
+     */
+    protected boolean startAsyncFactoryBeanObject(String beanName,FactoryBean<?> factoryBean){
+        if(!(factoryBean instanceof AsyncFactoryBean) || !factoryBean.isSingleton()){
+            return false;
+        }
+        if(this.factoryBeanObjectCache.containsKey(beanName)){
+            return true;
+        }
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        //先占位再调用getObjectAsync,避免在ConcurrentHashMap的compute中执行用户代码
+        if(this.asyncFactoryBeanObjects.putIfAbsent(beanName,future) == null){
+            CompletableFuture<?> started;
+            try{
+                started = getObjectAsync((AsyncFactoryBean<?>) factoryBean);
+            }catch(Throwable ex){
+                future.completeExceptionally(ex);
+                return true;
+            }
+            if(started == null){
+                future.complete(null);
+            }else{
+                started.whenComplete((object,ex) -> {
+                    if(ex != null){
+                        future.completeExceptionally(ex instanceof CompletionException && ex.getCause() != null ?
+                                ex.getCause() : ex);
+                    }else{
+                        future.complete(object);
+                    }
+                });
+            }
+        }
+        return true;
+    }
+
+    private CompletableFuture<?> getObjectAsync(final AsyncFactoryBean<?> factoryBean) throws Exception {
+        if(System.getSecurityManager() != null){
+            try{
+                return AccessController.doPrivileged((PrivilegedExceptionAction<CompletableFuture<?>>) factoryBean::getObjectAsync,
+                        getAccessControlContext());
+            }catch(PrivilegedActionException pae){
+                throw pae.getException();
+            }
+        }
+        return factoryBean.getObjectAsync();
+    }
+
+    /**
+     * 创建单例FactoryBean对象并放入缓存,不持有任何单例锁
+     */
+    private Object doCreateSingletonObjectFromFactoryBean(FactoryBean<?> factoryBean,String beanName,boolean shouldPostProcess){
+        Object object = this.factoryBeanObjectCache.get(beanName);
+        if(object == null){
+
+            object = this.doGetObjectFromFactoryBean(factoryBean,beanName);
+
+            //当前缓存的factory
+            Object alreadyThere = this.factoryBeanObjectCache.get(beanName);
+
+            if(alreadyThere != null){
+                object = alreadyThere;
+            }else{
+                if(shouldPostProcess){
+                    //返回指定的单例bean当前是否正在创建
+                    if(isSingletonCurrentlyInCreation(beanName)){
+                        return object;
+                    }
+                    //校验当前bean是否在创建名单之外,并且将该beanName加入到创建缓存中
+                    beforeSingletonCreation(beanName);
+
+                    try{
+                        object = this.postProcessObjectFromFactoryBean(object,beanName);
+                    }catch(Exception e){
+                        throw new BeanCreationException("");
+                    }finally {
+                        //检查该bean是否正在销毁的数据 并且 移除在当前正在创建的bean的缓存map
+                        afterSingletonCreation(beanName);
+                    }
+                }
+                //当前bean对象是否在单利bean缓存中
+                if(containsSingleton(beanName)){
+                    //将该beanname - factory放入缓存
+                    this.factoryBeanObjectCache.put(beanName,object);
+                    this.asyncFactoryBeanObjects.remove(beanName);
+                }
+            }
+        }
+        return object;
+    }
+
+    /**
+     * FactoryBean对象在等待图中的名称,和FactoryBean本身的创建锁区分开
+     */
+    private static String getFactoryBeanObjectCreationKey(String beanName){
+        return "object of FactoryBean '" + beanName + "'";
+    }
+
     /**
      * 获取要从给定FactoryBean公开的对象
      */
     private Object doGetObjectFromFactoryBean(final FactoryBean<?> factory,final String beanName) throws BeanCreationException {
         Object object = null;
-        try{
-            //检查是否开启了类安全检查
-            if(System.getSecurityManager() != null){
-                AccessControlContext acc = getAccessControlContext();
-                try{
-                    //通过工厂获取bean 对象
-                    object = AccessController.doPrivileged((PrivilegedExceptionAction<Object>) factory::getObject, acc);
-                }catch(PrivilegedActionException pae){
-                    throw pae.getException();
+        CompletableFuture<Object> asyncObject = this.asyncFactoryBeanObjects.get(beanName);
+        if(asyncObject != null){
+            //提前开始的异步创建,等待完成
+            object = awaitAsyncFactoryBeanObject(factory,beanName,asyncObject);
+        }else{
+            try{
+                if(System.getSecurityManager() != null){
+                    //开启了类安全检查
+                    AccessControlContext acc = getAccessControlContext();
+                    try{
+                        //通过工厂获取bean 对象
+                        object = AccessController.doPrivileged((PrivilegedExceptionAction<Object>) factory::getObject, acc);
+                    }catch(PrivilegedActionException pae){
+                        throw pae.getException();
+                    }
+                }else{
+                    object = factory.getObject();
                 }
+            }catch(FactoryBeanNotInitializedException e){
+                throw new BeanCurrentlyInCreationException(beanName,e.toString());
+            }catch (Throwable ex){
+                throw new BeanCreationException(beanName,"FactoryBean threw exception on object creation",ex);
             }
-        }catch(FactoryBeanNotInitializedException e){
-            throw new BeanCurrentlyInCreationException(beanName,e.toString());
-        }catch (Throwable ex){
-            throw new BeanCreationException(beanName,"");
         }
         //上面没有获取到
         if(object == null){
@@ -142,6 +399,33 @@ public abstract class FactoryBeanRegistrySupport extends DefaultSingletonBeanReg
         return object;
     }
 
+    /**
+     * 等待提前开始的异步创建完成。
+     * 异步任务不在容器的线程上运行,它反过来等待当前线程持有的bean时创建锁的等待图看不到这个环,
+     * 所以最多等待AsyncFactoryBean.getObjectTimeout(),超时按创建失败处理
+     */
+    private Object awaitAsyncFactoryBeanObject(FactoryBean<?> factory,String beanName,CompletableFuture<Object> asyncObject){
+        long timeout = (factory instanceof AsyncFactoryBean ?
+                ((AsyncFactoryBean<?>) factory).getObjectTimeout() : AsyncFactoryBean.DEFAULT_OBJECT_TIMEOUT);
+        try{
+            return asyncObject.get(timeout,TimeUnit.MILLISECONDS);
+        }catch(ExecutionException ex){
+            Throwable cause = ex.getCause();
+            if(cause instanceof FactoryBeanNotInitializedException){
+                throw new BeanCurrentlyInCreationException(beanName,cause.toString());
+            }
+            throw new BeanCreationException(beanName,"FactoryBean threw exception on object creation",cause);
+        }catch(CancellationException ex){
+            throw new BeanCreationException(beanName,"Asynchronous FactoryBean object creation was cancelled",ex);
+        }catch(TimeoutException ex){
+            throw new BeanCreationException(beanName,"Asynchronous FactoryBean object was not created within " +
+                    timeout + " ms, the asynchronous task may be waiting for a bean created by this thread",ex);
+        }catch(InterruptedException ex){
+            Thread.currentThread().interrupt();
+            throw new BeanCreationException(beanName,"Interrupted while waiting for asynchronous FactoryBean object",ex);
+        }
+    }
+
     /**
      * 对从FactoryBean获取的给定对象进行后处理。 生成的对象将暴露给bean引用。
      * 默认实现只是按原样返回给定的对象。 子类可以覆盖它，例如，应用后处理器。
@@ -167,15 +451,81 @@ public abstract class FactoryBeanRegistrySupport extends DefaultSingletonBeanReg
 
     /**
      * 重写以清除FactoryBean对象缓存。
+     * 只移除给定bean自身的对象,以及它包含的内部bean和依赖于它的bean创建的对象,其它缓存保持不变
      */
     @Override
     protected void removeSingleton(String beanName){
-        synchronized (getSingletonMutex()){
-            super.clearSingletonCache();
-            this.factoryBeanObjectCache.clear();
+        super.removeSingleton(beanName);
+        this.factoryBeanObjectTypeCache.remove(beanName);
+        this.asyncFactoryBeanObjects.remove(beanName);
+        FactoryBeanObjectPool pool = this.factoryBeanObjectPools.remove(beanName);
+        if(pool != null){
+            pool.close();
+        }
+        evictFactoryBeanObject(beanName,FactoryBeanObjectEvictionCause.REMOVED);
+        for (String containedBeanName : getContainedBeans(beanName)) {
+            evictFactoryBeanObject(containedBeanName,FactoryBeanObjectEvictionCause.CONTAINED);
+        }
+        for (String dependentBeanName : getDependentBeans(beanName)) {
+            evictFactoryBeanObject(dependentBeanName,FactoryBeanObjectEvictionCause.DEPENDENT);
+        }
+    }
+
+    /**
+     * 重写以清除FactoryBean对象缓存。
+     */
+    @Override
+    protected void clearSingletonCache(){
+        super.clearSingletonCache();
+        this.factoryBeanObjectTypeCache.clear();
+        this.asyncFactoryBeanObjects.clear();
+        for (String beanName : this.factoryBeanObjectPools.keySet()) {
+            FactoryBeanObjectPool pool = this.factoryBeanObjectPools.remove(beanName);
+            if(pool != null){
+                pool.close();
+            }
+        }
+        for (String beanName : this.factoryBeanObjectCache.keySet()) {
+            evictFactoryBeanObject(beanName,FactoryBeanObjectEvictionCause.CLEARED);
         }
     }
 
+    private void evictFactoryBeanObject(String beanName,FactoryBeanObjectEvictionCause cause){
+        if(this.factoryBeanObjectCache.remove(beanName) != null){
+            SingletonRegistryListener listener = getRegistryListener();
+            if(listener != null){
+                listener.factoryBeanObjectEvicted(beanName,cause);
+            }
+        }
+    }
+
+    /**
+     * 缓存的FactoryBean对象类型,以及确定该类型的FactoryBean实例
+     */
+    private static final class FactoryBeanObjectType {
+
+        final FactoryBean<?> factoryBean;
+
+        final Class<?> objectType;
+
+        FactoryBeanObjectType(FactoryBean<?> factoryBean,Class<?> objectType){
+            this.factoryBean = factoryBean;
+            this.objectType = objectType;
+        }
+    }
+
+    /**
+     * 一个单例FactoryBean对象的创建过程
+     */
+    private static final class FactoryBeanObjectCreation {
+
+        /** 负责创建的线程 */
+        final Thread creator = Thread.currentThread();
+
+        /** 创建完成时的对象,没有放入缓存时为null */
+        final CompletableFuture<Object> future = new CompletableFuture<>();
+    }
+
     /**
      * Return the security context for this bean factory. If a security manager
      * is set, interaction with the user code will be executed using the privileged
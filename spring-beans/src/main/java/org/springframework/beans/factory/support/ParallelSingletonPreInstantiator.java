@@ -0,0 +1,254 @@
+package org.springframework.beans.factory.support;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.util.Assert;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 按依赖关系并行预实例化单例bean
+ *
+ * 根据每个bean的前置依赖(depends-on以及registry中已经登记的依赖)构建一张图,
+ * 相互独立的子图在ForkJoinPool上并发创建,依赖方只等待自己真正依赖的bean。
+ * 依赖图中的环(例如运行时的循环引用)会被打断,交给getBean自身的循环引用处理。
+ *
+ * 完成后返回一个{@link Report},包含关键路径和实际达到的并行度。
+ */
+public class ParallelSingletonPreInstantiator {
+
+    private final ForkJoinPool pool;
+
+    public ParallelSingletonPreInstantiator(ForkJoinPool pool){
+        Assert.notNull(pool,"ForkJoinPool must not be null");
+        this.pool = pool;
+    }
+
+    /**
+     * 并行创建给定的bean
+     * @param beanNames 需要预实例化的bean,按注册顺序
+     * @param prerequisites 返回给定bean创建前必须完成的bean
+     * @param creator 实际创建bean的回调,通常是getBean
+     * @return 本次预实例化的统计结果
+     */
+    public Report preInstantiate(Collection<String> beanNames,
+                                 Function<String,Collection<String>> prerequisites,
+                                 Consumer<String> creator) throws BeansException {
+        Assert.notNull(beanNames,"bean names must not be null");
+        Assert.notNull(prerequisites,"prerequisites must not be null");
+        Assert.notNull(creator,"creator must not be null");
+
+        //只保留同样需要预实例化的前置依赖
+        Map<String,List<String>> prerequisitesByBean = new LinkedHashMap<>(beanNames.size() * 2);
+        for (String beanName : beanNames) {
+            prerequisitesByBean.put(beanName,new ArrayList<>());
+        }
+        Map<String,List<String>> dependentsByBean = new HashMap<>(beanNames.size() * 2);
+        Map<String,Integer> pending = new HashMap<>(beanNames.size() * 2);
+        for (Map.Entry<String, List<String>> entry : prerequisitesByBean.entrySet()) {
+            Collection<String> required = prerequisites.apply(entry.getKey());
+            if(required != null){
+                for (String prerequisite : required) {
+                    if(!prerequisite.equals(entry.getKey()) && prerequisitesByBean.containsKey(prerequisite) &&
+                            !entry.getValue().contains(prerequisite)){
+                        entry.getValue().add(prerequisite);
+                        dependentsByBean.computeIfAbsent(prerequisite, k -> new ArrayList<>()).add(entry.getKey());
+                    }
+                }
+            }
+            pending.put(entry.getKey(),entry.getValue().size());
+        }
+
+        //按拓扑顺序挂载future,剩下的节点处于环中,只等待已经挂载的前置依赖
+        List<String> order = topologicalOrder(prerequisitesByBean,dependentsByBean,pending);
+        Map<String,CompletableFuture<Void>> futures = new HashMap<>(beanNames.size() * 2);
+        Map<String,long[]> timings = new HashMap<>(beanNames.size() * 2);
+        for (String beanName : order) {
+            timings.put(beanName,new long[2]);
+        }
+
+        long start = System.nanoTime();
+        for (String beanName : order) {
+            List<CompletableFuture<Void>> required = new ArrayList<>();
+            for (String prerequisite : prerequisitesByBean.get(beanName)) {
+                CompletableFuture<Void> future = futures.get(prerequisite);
+                if(future != null){
+                    required.add(future);
+                }
+            }
+            long[] timing = timings.get(beanName);
+            CompletableFuture<Void> future = CompletableFuture
+                    .allOf(required.toArray(new CompletableFuture<?>[0]))
+                    .thenRunAsync(() -> {
+                        timing[0] = System.nanoTime();
+                        try{
+                            creator.accept(beanName);
+                        }finally {
+                            timing[1] = System.nanoTime();
+                        }
+                    },this.pool);
+            futures.put(beanName,future);
+        }
+
+        Throwable failure = null;
+        for (String beanName : order) {
+            try{
+                futures.get(beanName).join();
+            }catch(CompletionException e){
+                if(failure == null){
+                    failure = e.getCause();
+                }
+            }
+        }
+        long wallTime = System.nanoTime() - start;
+
+        if(failure != null){
+            if(failure instanceof BeansException){
+                throw (BeansException) failure;
+            }
+            throw new BeanCreationException("Parallel singleton pre-instantiation failed",failure);
+        }
+        return buildReport(order,prerequisitesByBean,timings,wallTime);
+    }
+
+    /**
+     * Kahn算法排序,环中的节点按原有顺序追加在最后
+     */
+    private List<String> topologicalOrder(Map<String,List<String>> prerequisitesByBean,
+                                          Map<String,List<String>> dependentsByBean,
+                                          Map<String,Integer> pending){
+        List<String> order = new ArrayList<>(prerequisitesByBean.size());
+        Deque<String> ready = new ArrayDeque<>();
+        pending.forEach((beanName,count) -> {
+            if(count == 0){
+                ready.add(beanName);
+            }
+        });
+        Set<String> visited = new HashSet<>(prerequisitesByBean.size() * 2);
+        while(!ready.isEmpty()){
+            String beanName = ready.poll();
+            order.add(beanName);
+            visited.add(beanName);
+            for (String dependent : dependentsByBean.getOrDefault(beanName,Collections.emptyList())) {
+                if(pending.merge(dependent,-1,Integer::sum) == 0){
+                    ready.add(dependent);
+                }
+            }
+        }
+        for (String beanName : prerequisitesByBean.keySet()) {
+            if(!visited.contains(beanName)){
+                order.add(beanName);
+            }
+        }
+        return order;
+    }
+
+    /**
+     * 计算关键路径:一个bean的完成时间 = 自身耗时 + 前置依赖中最长的完成时间
+     */
+    private Report buildReport(List<String> order,Map<String,List<String>> prerequisitesByBean,
+                               Map<String,long[]> timings,long wallTime){
+        Map<String,Long> pathTime = new HashMap<>(order.size() * 2);
+        Map<String,String> pathPredecessor = new HashMap<>(order.size() * 2);
+        long totalWork = 0;
+        String last = null;
+        long longest = -1;
+        for (String beanName : order) {
+            long[] timing = timings.get(beanName);
+            long duration = timing[1] - timing[0];
+            totalWork += duration;
+            long before = 0;
+            for (String prerequisite : prerequisitesByBean.get(beanName)) {
+                Long time = pathTime.get(prerequisite);
+                if(time != null && time > before){
+                    before = time;
+                    pathPredecessor.put(beanName,prerequisite);
+                }
+            }
+            long time = before + duration;
+            pathTime.put(beanName,time);
+            if(time > longest){
+                longest = time;
+                last = beanName;
+            }
+        }
+        LinkedList<String> criticalPath = new LinkedList<>();
+        for (String beanName = last; beanName != null; beanName = pathPredecessor.get(beanName)) {
+            criticalPath.addFirst(beanName);
+        }
+        return new Report(order.size(),criticalPath,Math.max(longest,0),totalWork,wallTime);
+    }
+
+
+    /**
+     * 并行预实例化的统计结果
+     */
+    public static final class Report {
+
+        private final int beanCount;
+
+        private final List<String> criticalPath;
+
+        private final long criticalPathNanos;
+
+        private final long totalWorkNanos;
+
+        private final long wallTimeNanos;
+
+        Report(int beanCount,List<String> criticalPath,long criticalPathNanos,long totalWorkNanos,long wallTimeNanos){
+            this.beanCount = beanCount;
+            this.criticalPath = Collections.unmodifiableList(criticalPath);
+            this.criticalPathNanos = criticalPathNanos;
+            this.totalWorkNanos = totalWorkNanos;
+            this.wallTimeNanos = wallTimeNanos;
+        }
+
+        /**
+         * 创建的bean的个数
+         */
+        public int getBeanCount(){
+            return this.beanCount;
+        }
+
+        /**
+         * 耗时最长的依赖链,从最先创建的bean开始
+         */
+        public List<String> getCriticalPath(){
+            return this.criticalPath;
+        }
+
+        public long getCriticalPathNanos(){
+            return this.criticalPathNanos;
+        }
+
+        /**
+         * 所有bean创建耗时之和
+         */
+        public long getTotalWorkNanos(){
+            return this.totalWorkNanos;
+        }
+
+        public long getWallTimeNanos(){
+            return this.wallTimeNanos;
+        }
+
+        /**
+         * 实际达到的并行度:总耗时 / 墙钟时间
+         */
+        public double getParallelism(){
+            return (this.wallTimeNanos > 0 ? (double) this.totalWorkNanos / this.wallTimeNanos : 0d);
+        }
+
+        @Override
+        public String toString() {
+            return "Pre-instantiated " + this.beanCount + " singletons in " + this.wallTimeNanos / 1000000 +
+                    " ms (parallelism " + String.format("%.2f",getParallelism()) + ", critical path " +
+                    this.criticalPathNanos / 1000000 + " ms: " + this.criticalPath + ")";
+        }
+    }
+}
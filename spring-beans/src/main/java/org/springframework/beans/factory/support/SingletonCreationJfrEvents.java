@@ -0,0 +1,129 @@
+package org.springframework.beans.factory.support;
+
+import com.sun.istack.internal.Nullable;
+import org.springframework.util.ClassUtils;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 通过反射提交单例创建的JFR事件
+ *
+ * 本模块按Java 8编译,不能直接继承jdk.jfr.Event:旧的Java 8运行时(8u262之前)没有jdk.jfr,
+ * 按--release 8编译时也找不到它。这里在运行时用jdk.jfr.EventFactory定义事件类型,
+ * 运行时不支持时SingletonCreationTimeline不提交JFR事件。
+ */
+final class SingletonCreationJfrEvents {
+
+    private static final String EVENT_FACTORY_CLASS_NAME = "jdk.jfr.EventFactory";
+
+    private static final int BEAN_NAME = 0;
+
+    private static final int CATEGORY = 1;
+
+    private static final int PARENT_BEAN_NAME = 2;
+
+    private final Object eventFactory;
+
+    private final Method newEvent;
+
+    private final Method isEnabled;
+
+    private final Method set;
+
+    private final Method begin;
+
+    private final Method commit;
+
+
+    private SingletonCreationJfrEvents(ClassLoader classLoader) throws ReflectiveOperationException {
+        Class<?> eventFactoryClass = ClassUtils.forName(EVENT_FACTORY_CLASS_NAME,classLoader);
+        Class<?> eventClass = ClassUtils.forName("jdk.jfr.Event",classLoader);
+        Class<?> annotationElementClass = ClassUtils.forName("jdk.jfr.AnnotationElement",classLoader);
+        Class<?> valueDescriptorClass = ClassUtils.forName("jdk.jfr.ValueDescriptor",classLoader);
+        Constructor<?> annotationElement = annotationElementClass.getConstructor(Class.class,Object.class);
+        Constructor<?> valueDescriptor = valueDescriptorClass.getConstructor(Class.class,String.class,List.class);
+
+        List<Object> eventAnnotations = Arrays.asList(
+                annotationElement.newInstance(annotationType("jdk.jfr.Name",classLoader),"org.springframework.beans.SingletonCreation"),
+                annotationElement.newInstance(annotationType("jdk.jfr.Label",classLoader),"Singleton Creation"),
+                annotationElement.newInstance(annotationType("jdk.jfr.Category",classLoader),new String[]{"Spring", "Beans"}),
+                annotationElement.newInstance(annotationType("jdk.jfr.Description",classLoader),
+                        "Creation of a singleton bean or of a FactoryBean product"));
+        List<Object> fields = new ArrayList<>(3);
+        fields.add(valueDescriptor.newInstance(String.class,"beanName",
+                label(annotationElement,"Bean Name",classLoader)));
+        fields.add(valueDescriptor.newInstance(String.class,"category",
+                label(annotationElement,"Category",classLoader)));
+        fields.add(valueDescriptor.newInstance(String.class,"parentBeanName",
+                label(annotationElement,"Parent Bean Name",classLoader)));
+
+        this.eventFactory = eventFactoryClass.getMethod("create",List.class,List.class).invoke(null,eventAnnotations,fields);
+        this.newEvent = eventFactoryClass.getMethod("newEvent");
+        this.isEnabled = eventClass.getMethod("isEnabled");
+        this.set = eventClass.getMethod("set",int.class,Object.class);
+        this.begin = eventClass.getMethod("begin");
+        this.commit = eventClass.getMethod("commit");
+    }
+
+    /**
+     * 运行时支持jdk.jfr.EventFactory时返回实例,否则返回null
+     */
+    @Nullable
+    static SingletonCreationJfrEvents createIfSupported(){
+        ClassLoader classLoader = SingletonCreationJfrEvents.class.getClassLoader();
+        if(!ClassUtils.isPresent(EVENT_FACTORY_CLASS_NAME,classLoader)){
+            return null;
+        }
+        try{
+            return new SingletonCreationJfrEvents(classLoader);
+        }catch(ReflectiveOperationException | LinkageError ex){
+            return null;
+        }
+    }
+
+    /**
+     * 开始一个事件
+     * @return 事件没有被录制时返回null
+     */
+    @Nullable
+    Object begin(String beanName,String category,@Nullable String parentBeanName){
+        try{
+            Object event = this.newEvent.invoke(this.eventFactory);
+            if(!(Boolean) this.isEnabled.invoke(event)){
+                return null;
+            }
+            this.set.invoke(event,BEAN_NAME,beanName);
+            this.set.invoke(event,CATEGORY,category);
+            this.set.invoke(event,PARENT_BEAN_NAME,parentBeanName);
+            this.begin.invoke(event);
+            return event;
+        }catch(ReflectiveOperationException ex){
+            return null;
+        }
+    }
+
+    void commit(Object event){
+        try{
+            this.commit.invoke(event);
+        }catch(ReflectiveOperationException ex){
+            //事件丢失不影响单例的创建
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<? extends Annotation> annotationType(String className,ClassLoader classLoader)
+            throws ClassNotFoundException {
+        return (Class<? extends Annotation>) ClassUtils.forName(className,classLoader);
+    }
+
+    private static List<Object> label(Constructor<?> annotationElement,String label,ClassLoader classLoader)
+            throws ReflectiveOperationException {
+        return Collections.singletonList(annotationElement.newInstance(annotationType("jdk.jfr.Label",classLoader),label));
+    }
+}
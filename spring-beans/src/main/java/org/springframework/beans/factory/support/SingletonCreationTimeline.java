@@ -0,0 +1,317 @@
+package org.springframework.beans.factory.support;
+
+import com.sun.istack.internal.Nullable;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 记录启动期间单例创建的时间线
+ *
+ * 通过beforeSingletonCreation/afterSingletonCreation以及FactoryBean对象的获取记录嵌套的时间段,
+ * 每个时间段带有线程信息和外层时间段的bean名称。记录的结果可以导出为Chrome trace-event格式的JSON
+ * (在chrome://tracing或Perfetto中打开),开启JFR时还会为每个时间段提交一个JFR事件。
+ *
+ * 每个时间段记录两次System.nanoTime()并分配一个小对象,每个线程的时间段栈在线程上复用。
+ * 原型bean和池化的FactoryBean对象每次获取都会记录时间段,所以最多保留maxSpans个,超出的只计数;
+ * 启动完成后可以调用stop()停止记录。
+ * @see DefaultSingletonBeanRegistry#setCreationTimeline
+ */
+public class SingletonCreationTimeline {
+
+    /**
+     * 单例bean的创建
+     */
+    public static final String CATEGORY_SINGLETON = "singleton";
+
+    /**
+     * 从FactoryBean获取对象
+     */
+    public static final String CATEGORY_FACTORY_BEAN_OBJECT = "factoryBeanObject";
+
+    /**
+     * 默认最多保留的时间段个数
+     */
+    public static final int DEFAULT_MAX_SPANS = 100000;
+
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * 提交JFR事件,没有开启或者运行时不支持JFR时为空
+     */
+    @Nullable
+    private final SingletonCreationJfrEvents jfrEvents;
+
+    private final ThreadLocal<Deque<Span>> openSpans = ThreadLocal.withInitial(ArrayDeque::new);
+
+    private final Queue<Span> finishedSpans = new ConcurrentLinkedQueue<>();
+
+    private final int maxSpans;
+
+    /**
+     * finishedSpans中的个数,ConcurrentLinkedQueue的size()需要遍历
+     */
+    private final AtomicInteger spanCount = new AtomicInteger();
+
+    /**
+     * 超出maxSpans而没有保留的时间段个数
+     */
+    private final LongAdder droppedSpans = new LongAdder();
+
+    private volatile boolean stopped = false;
+
+
+    public SingletonCreationTimeline(){
+        this(false);
+    }
+
+    /**
+     * @param jfrEnabled 是否同时提交JFR事件,运行时不支持jdk.jfr时忽略
+     */
+    public SingletonCreationTimeline(boolean jfrEnabled){
+        this(jfrEnabled,DEFAULT_MAX_SPANS);
+    }
+
+    /**
+     * @param jfrEnabled 是否同时提交JFR事件,运行时不支持jdk.jfr时忽略
+     * @param maxSpans 最多保留的时间段个数,超出的不再保留,JFR事件仍然提交
+     */
+    public SingletonCreationTimeline(boolean jfrEnabled,int maxSpans){
+        Assert.isTrue(maxSpans > 0,"maxSpans must be positive");
+        this.jfrEvents = (jfrEnabled ? SingletonCreationJfrEvents.createIfSupported() : null);
+        this.maxSpans = maxSpans;
+    }
+
+    /**
+     * 是否会提交JFR事件
+     */
+    public boolean isJfrEnabled(){
+        return this.jfrEvents != null;
+    }
+
+    /**
+     * 开始记录给定bean的一个时间段
+     */
+    public void spanStarted(String beanName,String category){
+        if(this.stopped){
+            return;
+        }
+        Deque<Span> spans = this.openSpans.get();
+        Span parent = spans.peek();
+        Thread thread = Thread.currentThread();
+        Span span = new Span(beanName,category,(parent != null ? parent.beanName : null),
+                thread.getId(),thread.getName(),spans.size(),System.nanoTime());
+        if(this.jfrEvents != null){
+            span.event = this.jfrEvents.begin(beanName,category,span.parentBeanName);
+        }
+        spans.push(span);
+    }
+
+    /**
+     * 结束给定bean最近一次开始的时间段。如果它上面还有没有结束的时间段(例如创建失败),一并结束;
+     * 当前线程上没有给定bean的时间段时不做任何处理
+     */
+    public void spanFinished(String beanName){
+        Deque<Span> spans = this.openSpans.get();
+        boolean open = false;
+        for (Span span : spans) {
+            if(span.beanName.equals(beanName)){
+                open = true;
+                break;
+            }
+        }
+        if(!open){
+            return;
+        }
+        long endNanos = System.nanoTime();
+        Span span;
+        do{
+            span = spans.pop();
+            span.endNanos = endNanos;
+            if(span.event != null){
+                this.jfrEvents.commit(span.event);
+            }
+            if(reserveSpan()){
+                this.finishedSpans.add(span);
+            }else{
+                this.droppedSpans.increment();
+            }
+        }while(!span.beanName.equals(beanName));
+    }
+
+    private boolean reserveSpan(){
+        int count;
+        do{
+            count = this.spanCount.get();
+            if(count >= this.maxSpans){
+                return false;
+            }
+        }while(!this.spanCount.compareAndSet(count,count + 1));
+        return true;
+    }
+
+    /**
+     * 返回保留下来的已经结束的时间段个数
+     */
+    public int getSpanCount(){
+        return this.spanCount.get();
+    }
+
+    /**
+     * 返回因为超出maxSpans而没有保留的时间段个数
+     */
+    public long getDroppedSpanCount(){
+        return this.droppedSpans.sum();
+    }
+
+    /**
+     * 停止记录新的时间段,已经开始的时间段结束时仍然记录。已经记录的结果可以继续导出
+     */
+    public void stop(){
+        this.stopped = true;
+    }
+
+    public boolean isStopped(){
+        return this.stopped;
+    }
+
+    /**
+     * 清空已经记录的时间段
+     */
+    public void clear(){
+        this.finishedSpans.clear();
+        this.spanCount.set(0);
+        this.droppedSpans.reset();
+    }
+
+    /**
+     * 以Chrome trace-event格式导出所有已经结束的时间段
+     */
+    public void writeChromeTrace(Writer writer) throws IOException {
+        Assert.notNull(writer,"writer must not be null");
+        List<Span> spans = new ArrayList<>(this.finishedSpans);
+        spans.sort(Comparator.comparingLong(span -> span.startNanos));
+
+        writer.write("{\"traceEvents\":[");
+        boolean first = true;
+        Map<Long,String> threadNames = new LinkedHashMap<>();
+        for (Span span : spans) {
+            threadNames.putIfAbsent(span.threadId,span.threadName);
+            if(!first){
+                writer.write(',');
+            }
+            first = false;
+            writer.write("\n{\"name\":");
+            writeJsonString(writer,span.beanName);
+            writer.write(",\"cat\":");
+            writeJsonString(writer,span.category);
+            writer.write(",\"ph\":\"X\",\"ts\":");
+            writer.write(toMicros(span.startNanos - this.startNanos));
+            writer.write(",\"dur\":");
+            writer.write(toMicros(span.endNanos - span.startNanos));
+            writer.write(",\"pid\":1,\"tid\":");
+            writer.write(Long.toString(span.threadId));
+            writer.write(",\"args\":{\"depth\":");
+            writer.write(Integer.toString(span.depth));
+            if(span.parentBeanName != null){
+                writer.write(",\"parent\":");
+                writeJsonString(writer,span.parentBeanName);
+            }
+            writer.write("}}");
+        }
+        for (Map.Entry<Long, String> entry : threadNames.entrySet()) {
+            if(!first){
+                writer.write(',');
+            }
+            first = false;
+            writer.write("\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":");
+            writer.write(Long.toString(entry.getKey()));
+            writer.write(",\"args\":{\"name\":");
+            writeJsonString(writer,entry.getValue());
+            writer.write("}}");
+        }
+        writer.write("\n],\"displayTimeUnit\":\"ms\"}\n");
+        writer.flush();
+    }
+
+    private static String toMicros(long nanos){
+        return (nanos / 1000) + "." + String.format("%03d",nanos % 1000);
+    }
+
+    private static void writeJsonString(Writer writer,String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c){
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    if(c < 0x20){
+                        writer.write(String.format("\\u%04x",(int) c));
+                    }else{
+                        writer.write(c);
+                    }
+            }
+        }
+        writer.write('"');
+    }
+
+
+    /**
+     * 一个bean的创建时间段
+     */
+    private static final class Span {
+
+        final String beanName;
+
+        final String category;
+
+        @Nullable
+        final String parentBeanName;
+
+        final long threadId;
+
+        final String threadName;
+
+        final int depth;
+
+        final long startNanos;
+
+        long endNanos;
+
+        /**
+         * 对应的JFR事件,没有录制时为空
+         */
+        @Nullable
+        Object event;
+
+        Span(String beanName,String category,@Nullable String parentBeanName,long threadId,String threadName,
+             int depth,long startNanos){
+            this.beanName = beanName;
+            this.category = category;
+            this.parentBeanName = parentBeanName;
+            this.threadId = threadId;
+            this.threadName = threadName;
+            this.depth = depth;
+            this.startNanos = startNanos;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.springframework.beans.factory.support;
+
+import com.sun.istack.internal.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 单例并发创建时的等待图(wait-for graph)
+ *
+ * 记录每个bean的创建锁被哪个线程持有,以及每个线程正在等待哪个bean的创建锁。
+ * 一个线程准备等待时沿着 bean -> 持有线程 -> 该线程等待的bean -> ... 查找,
+ * 如果回到了自己,说明等待会形成死锁。
+ *
+ * 所有操作都在图上加锁,只在创建锁发生竞争时才会调用startWaiting。
+ */
+final class SingletonCreationWaitGraph {
+
+    /**
+     * bean name - 持有它的创建锁的线程
+     */
+    private final Map<String,Thread> owners = new HashMap<>(64);
+
+    /**
+     * 线程 - 它正在等待的bean name
+     */
+    private final Map<Thread,String> waiting = new HashMap<>(16);
+
+
+    synchronized void acquired(String beanName,Thread thread){
+        this.owners.put(beanName,thread);
+    }
+
+    synchronized void released(String beanName,Thread thread){
+        this.owners.remove(beanName,thread);
+    }
+
+    /**
+     * 登记给定线程开始等待给定bean的创建锁
+     * @return 如果等待会形成死锁,返回环的描述,此时不会登记;否则返回null
+     */
+    @Nullable
+    synchronized String startWaiting(String beanName,Thread thread){
+        if(leadsBackTo(beanName,thread)){
+            return describeCycle(beanName,thread);
+        }
+        this.waiting.put(thread,beanName);
+        return null;
+    }
+
+    /**
+     * 沿着 bean -> 持有线程 -> 该线程等待的bean 查找是否会回到给定线程
+     */
+    private boolean leadsBackTo(String beanName,Thread thread){
+        String next = beanName;
+        //最多经过所有等待中的线程,避免在不包含当前线程的环上无限循环
+        for (int i = 0; i <= this.waiting.size(); i++) {
+            Thread owner = this.owners.get(next);
+            if(owner == null){
+                return false;
+            }
+            if(owner == thread){
+                return true;
+            }
+            next = this.waiting.get(owner);
+            if(next == null){
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 只在发现环之后调用,按同样的路径生成描述
+     */
+    private String describeCycle(String beanName,Thread thread){
+        StringBuilder cycle = new StringBuilder();
+        cycle.append("thread '").append(thread.getName()).append("' waits for '").append(beanName).append("'");
+        String next = beanName;
+        Thread owner;
+        while((owner = this.owners.get(next)) != thread){
+            next = this.waiting.get(owner);
+            cycle.append(", held by thread '").append(owner.getName()).append("' which waits for '").append(next).append("'");
+        }
+        cycle.append(", held by thread '").append(thread.getName()).append("'");
+        return cycle.toString();
+    }
+
+    synchronized void stopWaiting(Thread thread){
+        this.waiting.remove(thread);
+    }
+}
@@ -0,0 +1,570 @@
+package org.springframework.beans.factory.support;
+
+import com.sun.istack.internal.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * bean之间依赖关系的双向索引图
+ *
+ * 同时维护bean name - 依赖它的bean(dependents) 和 bean name - 它所依赖的bean(dependencies)
+ * 两个方向,以及bean name - 它包含的内部bean(contained)和反向关系,
+ * 移除一个bean只需要处理与它直接相连的边,代价与它的度数成正比。
+ *
+ * bean name在第一次出现时被分配一个连续的int编号,边以int数组的形式保存,
+ * 对外的String方法只是在编号上做一层转换。
+ *
+ * 每个节点的邻接数组对读方是不可变的:追加时只写入读方看不到的位置后发布新的长度,
+ * 移除和扩容时整体复制(copy-on-write)。写操作在图上加锁,读操作无锁,拿到的总是某一时刻一致的快照。
+ *
+ * 编号表(名称 - 编号和编号 - 节点)作为一个整体发布,读方在一次操作中只使用同一个编号表。
+ * 移除的bean释放名称和节点,编号在一个编号表中不会重用;移除的节点累积到一定数量后,
+ * 把存活的节点重新编号到一个新的编号表中,旧的编号表保持不变,正在读取它的读方不受影响。
+ *
+ * 传递依赖的判断使用按节点缓存的可达集合(以节点编号为下标的BitSet)。
+ * 新增依赖时只增量更新能到达该边起点的节点的缓存,移除bean时整体作废所有缓存。
+ */
+final class SingletonDependencyGraph {
+
+    private static final String[] NO_NAMES = new String[0];
+
+    /**
+     * 触发重新编号的最少已移除节点数
+     */
+    private static final int COMPACTION_THRESHOLD = 64;
+
+    /**
+     * 当前的编号表,扩容、重新编号和clear时整体替换
+     */
+    private volatile Table table = new Table(new ConcurrentHashMap<>(64),new Node[64]);
+
+    /**
+     * 当前编号表中下一个分配的编号
+     */
+    private int nextId = 0;
+
+    /**
+     * 当前编号表中已经移除的节点个数
+     */
+    private int removedCount = 0;
+
+    /**
+     * 每次修改图时递增,用于判断无锁计算出来的可达集合是否还能发布
+     */
+    private volatile long version = 0;
+
+    /**
+     * 可达集合缓存的代数,移除bean时递增,使所有缓存失效
+     */
+    private volatile int generation = 0;
+
+    /**
+     * 当前代中已经缓存了可达集合的节点个数,为0时新增依赖不需要维护缓存
+     */
+    private int cachedClosureCount = 0;
+
+
+    /**
+     * 登记dependentBeanName依赖于beanName
+     * @return 如果该依赖关系之前已经登记过返回false
+     */
+    boolean addDependency(String beanName,String dependentBeanName){
+        synchronized (this){
+            Node node = nodeFor(beanName);
+            Node dependentNode = nodeFor(dependentBeanName);
+            if(node.dependents.contains(dependentNode.id)){
+                return false;
+            }
+            node.dependents = node.dependents.append(dependentNode.id);
+            dependentNode.dependencies = dependentNode.dependencies.append(node.id);
+            this.version++;
+            if(this.cachedClosureCount > 0){
+                updateClosures(node,dependentNode);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 登记containingBeanName包含内部bean containedBeanName
+     * @return 如果该包含关系之前已经登记过返回false
+     */
+    boolean addContainedBean(String containingBeanName,String containedBeanName){
+        synchronized (this){
+            Node node = nodeFor(containingBeanName);
+            Node containedNode = nodeFor(containedBeanName);
+            if(node.contained.contains(containedNode.id)){
+                return false;
+            }
+            node.contained = node.contained.append(containedNode.id);
+            containedNode.containing = containedNode.containing.append(node.id);
+            return true;
+        }
+    }
+
+    /**
+     * 判断从beanName出发,沿着依赖方向能否到达dependentBeanName,即dependentBeanName是否直接或间接依赖于beanName
+     */
+    boolean isReachable(String beanName,String dependentBeanName){
+        Table table = this.table;
+        Node node = nodeOf(table,beanName);
+        Integer targetId = table.ids.get(dependentBeanName);
+        if(node == null || targetId == null || node.dependents.size == 0){
+            return false;
+        }
+        Closure closure = node.closure;
+        if(closure == null || closure.generation != this.generation){
+            long version = this.version;
+            int generation = this.generation;
+            closure = new Closure(computeReachable(table,node),generation);
+            synchronized (this){
+                //计算期间图没有被修改过才发布
+                if(this.version == version && this.generation == generation){
+                    if(node.closure == null || node.closure.generation != generation){
+                        this.cachedClosureCount++;
+                    }
+                    node.closure = closure;
+                }
+            }
+        }
+        return closure.reachable.get(targetId);
+    }
+
+    /**
+     * 返回依赖于给定bean的bean
+     */
+    String[] dependentsOf(String beanName){
+        Table table = this.table;
+        Node node = nodeOf(table,beanName);
+        return (node != null ? toNames(table,node.dependents) : NO_NAMES);
+    }
+
+    /**
+     * 返回给定bean所依赖的bean
+     */
+    String[] dependenciesOf(String beanName){
+        Table table = this.table;
+        Node node = nodeOf(table,beanName);
+        return (node != null ? toNames(table,node.dependencies) : NO_NAMES);
+    }
+
+    /**
+     * 返回给定bean包含的内部bean
+     */
+    String[] containedBeansOf(String beanName){
+        Table table = this.table;
+        Node node = nodeOf(table,beanName);
+        return (node != null ? toNames(table,node.contained) : NO_NAMES);
+    }
+
+    boolean hasDependents(String beanName){
+        Node node = nodeOf(this.table,beanName);
+        return (node != null && node.dependents.size > 0);
+    }
+
+    /**
+     * 移除所有依赖于给定bean的关系,返回被移除的依赖方
+     */
+    String[] removeDependents(String beanName){
+        synchronized (this){
+            Table table = this.table;
+            Node node = nodeOf(table,beanName);
+            if(node == null || node.dependents.size == 0){
+                return NO_NAMES;
+            }
+            IntList dependents = node.dependents;
+            node.dependents = IntList.EMPTY;
+            invalidateClosures();
+            Node[] nodes = table.nodes;
+            for (int i = 0; i < dependents.size; i++) {
+                Node dependentNode = nodes[dependents.elements[i]];
+                dependentNode.dependencies = dependentNode.dependencies.remove(node.id);
+            }
+            return toNames(table,dependents);
+        }
+    }
+
+    /**
+     * 移除给定bean包含的所有内部bean的关系,返回被移除的内部bean
+     */
+    String[] removeContainedBeans(String beanName){
+        synchronized (this){
+            Table table = this.table;
+            Node node = nodeOf(table,beanName);
+            if(node == null || node.contained.size == 0){
+                return NO_NAMES;
+            }
+            IntList contained = node.contained;
+            node.contained = IntList.EMPTY;
+            Node[] nodes = table.nodes;
+            for (int i = 0; i < contained.size; i++) {
+                Node containedNode = nodes[contained.elements[i]];
+                containedNode.containing = containedNode.containing.remove(node.id);
+            }
+            return toNames(table,contained);
+        }
+    }
+
+    /**
+     * 移除给定bean以及与它直接相连的所有边,释放它的名称和节点
+     */
+    void removeBean(String beanName){
+        synchronized (this){
+            Table table = this.table;
+            Node node = nodeOf(table,beanName);
+            if(node == null){
+                return;
+            }
+            invalidateClosures();
+            Node[] nodes = table.nodes;
+            for (int i = 0; i < node.dependencies.size; i++) {
+                Node other = nodes[node.dependencies.elements[i]];
+                other.dependents = other.dependents.remove(node.id);
+            }
+            for (int i = 0; i < node.dependents.size; i++) {
+                Node other = nodes[node.dependents.elements[i]];
+                other.dependencies = other.dependencies.remove(node.id);
+            }
+            for (int i = 0; i < node.containing.size; i++) {
+                Node other = nodes[node.containing.elements[i]];
+                other.contained = other.contained.remove(node.id);
+            }
+            for (int i = 0; i < node.contained.size; i++) {
+                Node other = nodes[node.contained.elements[i]];
+                other.containing = other.containing.remove(node.id);
+            }
+            node.dependencies = IntList.EMPTY;
+            node.dependents = IntList.EMPTY;
+            node.containing = IntList.EMPTY;
+            node.contained = IntList.EMPTY;
+            //编号不重用,持有旧邻接数组的读方只会看到空的位置
+            nodes[node.id] = null;
+            table.ids.remove(beanName,node.id);
+            this.removedCount++;
+            if(this.removedCount >= COMPACTION_THRESHOLD && this.removedCount * 2 >= this.nextId){
+                compact();
+            }
+        }
+    }
+
+    /**
+     * 遍历每个bean和依赖于它的bean
+     */
+    void forEachDependents(BiConsumer<String,String[]> action){
+        Table table = this.table;
+        for (Node node : table.nodes) {
+            if(node == null){
+                continue;
+            }
+            String[] dependents = toNames(table,node.dependents);
+            if(dependents.length > 0){
+                action.accept(node.name,dependents);
+            }
+        }
+    }
+
+    /**
+     * 换上一个空的编号表,正在读取旧编号表的读方不受影响
+     */
+    void clear(){
+        synchronized (this){
+            this.table = new Table(new ConcurrentHashMap<>(64),new Node[64]);
+            this.nextId = 0;
+            this.removedCount = 0;
+            invalidateClosures();
+        }
+    }
+
+    @Nullable
+    private Node nodeOf(Table table,String beanName){
+        Integer id = table.ids.get(beanName);
+        if(id == null){
+            return null;
+        }
+        Node node = nodeAt(table,id);
+        return (node != null && node.name.equals(beanName) ? node : null);
+    }
+
+    /**
+     * 返回编号对应的节点,已经移除时返回null
+     */
+    @Nullable
+    private Node nodeAt(Table table,int id){
+        Node[] nodes = table.nodes;
+        if(id < nodes.length){
+            return nodes[id];
+        }
+        //读取期间编号表扩容了,扩容前后共用同一个编号空间
+        Table latest = this.table;
+        return (latest.ids == table.ids && id < latest.nodes.length ? latest.nodes[id] : null);
+    }
+
+    /**
+     * 返回给定bean的节点,不存在时分配新的编号,调用方需要持有图的锁
+     */
+    private Node nodeFor(String beanName){
+        Table table = this.table;
+        Integer id = table.ids.get(beanName);
+        if(id != null){
+            return table.nodes[id];
+        }
+        int newId = this.nextId++;
+        if(newId == table.nodes.length){
+            table = new Table(table.ids,Arrays.copyOf(table.nodes,newId * 2));
+            this.table = table;
+        }
+        Node node = new Node(newId,beanName);
+        table.nodes[newId] = node;
+        //最后发布编号,读方通过编号总能看到对应的节点
+        table.ids.put(beanName,newId);
+        return node;
+    }
+
+    /**
+     * 把存活的节点连续地重新编号到一个新的编号表中,调用方需要持有图的锁
+     */
+    private void compact(){
+        Table table = this.table;
+        int[] newIds = new int[this.nextId];
+        Node[] liveNodes = new Node[this.nextId - this.removedCount];
+        int count = 0;
+        for (int id = 0; id < this.nextId; id++) {
+            Node node = table.nodes[id];
+            if(node != null){
+                newIds[id] = count;
+                liveNodes[count++] = node;
+            }
+        }
+        Map<String,Integer> ids = new ConcurrentHashMap<>(Math.max(64,count * 2));
+        Node[] nodes = new Node[Math.max(64,count * 2)];
+        for (int id = 0; id < count; id++) {
+            Node liveNode = liveNodes[id];
+            Node node = new Node(id,liveNode.name);
+            node.dependents = liveNode.dependents.remap(newIds);
+            node.dependencies = liveNode.dependencies.remap(newIds);
+            node.contained = liveNode.contained.remap(newIds);
+            node.containing = liveNode.containing.remap(newIds);
+            nodes[id] = node;
+            ids.put(node.name,id);
+        }
+        this.table = new Table(ids,nodes);
+        this.nextId = count;
+        this.removedCount = 0;
+        invalidateClosures();
+    }
+
+    private String[] toNames(Table table,IntList list){
+        if(list.size == 0){
+            return NO_NAMES;
+        }
+        String[] result = new String[list.size];
+        int count = 0;
+        for (int i = 0; i < list.size; i++) {
+            //旧的邻接数组中可能还有刚刚移除的节点
+            Node node = nodeAt(table,list.elements[i]);
+            if(node != null){
+                result[count++] = node.name;
+            }
+        }
+        return (count == result.length ? result : Arrays.copyOf(result,count));
+    }
+
+    /**
+     * 从给定节点出发迭代遍历,返回所有能到达的节点编号
+     */
+    private BitSet computeReachable(Table table,Node start){
+        BitSet reachable = new BitSet();
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(start);
+        while(!stack.isEmpty()){
+            IntList dependents = stack.pop().dependents;
+            for (int i = 0; i < dependents.size; i++) {
+                int id = dependents.elements[i];
+                Node node;
+                if(!reachable.get(id) && (node = nodeAt(table,id)) != null){
+                    reachable.set(id);
+                    stack.push(node);
+                }
+            }
+        }
+        return reachable;
+    }
+
+    /**
+     * 新增了from到to的边之后,增量更新所有能到达from的节点的可达集合。
+     * 如果某个节点的可达集合已经包含to,那么能到达它的节点也都已经包含,不必继续向上处理
+     */
+    private void updateClosures(Node from,Node to){
+        Table table = this.table;
+        Node[] nodes = table.nodes;
+        int generation = this.generation;
+        BitSet added = null;
+        BitSet visited = new BitSet();
+        Deque<Node> queue = new ArrayDeque<>();
+        queue.add(from);
+        visited.set(from.id);
+        while(!queue.isEmpty()){
+            Node node = queue.poll();
+            Closure closure = node.closure;
+            if(closure != null && closure.generation == generation){
+                if(closure.reachable.get(to.id)){
+                    continue;
+                }
+                if(added == null){
+                    added = computeReachable(table,to);
+                    added.set(to.id);
+                }
+                BitSet reachable = (BitSet) closure.reachable.clone();
+                reachable.or(added);
+                node.closure = new Closure(reachable,generation);
+            }
+            IntList dependencies = node.dependencies;
+            for (int i = 0; i < dependencies.size; i++) {
+                int id = dependencies.elements[i];
+                if(!visited.get(id)){
+                    visited.set(id);
+                    queue.add(nodes[id]);
+                }
+            }
+        }
+    }
+
+    private void invalidateClosures(){
+        this.version++;
+        this.generation++;
+        this.cachedClosureCount = 0;
+    }
+
+
+    /**
+     * 图中的一个节点,邻接数组只会被整体替换
+     */
+    private static final class Node {
+
+        final int id;
+
+        final String name;
+
+        volatile IntList dependents = IntList.EMPTY;
+
+        volatile IntList dependencies = IntList.EMPTY;
+
+        volatile IntList contained = IntList.EMPTY;
+
+        volatile IntList containing = IntList.EMPTY;
+
+        /**
+         * 缓存的可达集合,可能为空或者已经过期
+         */
+        volatile Closure closure;
+
+        Node(int id,String name){
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+
+    /**
+     * 可增长的int数组,对持有它的读方是不可变的。
+     * 只有最新的版本会被追加,追加写入的位置不在任何旧版本的size之内,因此多个版本可以共享同一个数组
+     */
+    private static final class IntList {
+
+        static final IntList EMPTY = new IntList(new int[0],0);
+
+        final int[] elements;
+
+        final int size;
+
+        IntList(int[] elements,int size){
+            this.elements = elements;
+            this.size = size;
+        }
+
+        boolean contains(int value){
+            for (int i = 0; i < this.size; i++) {
+                if(this.elements[i] == value){
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        IntList append(int value){
+            int[] elements = this.elements;
+            if(this.size == elements.length){
+                elements = Arrays.copyOf(elements,Math.max(4,this.size * 2));
+            }
+            elements[this.size] = value;
+            return new IntList(elements,this.size + 1);
+        }
+
+        IntList remove(int value){
+            for (int i = 0; i < this.size; i++) {
+                if(this.elements[i] == value){
+                    if(this.size == 1){
+                        return EMPTY;
+                    }
+                    int[] elements = new int[this.size - 1];
+                    System.arraycopy(this.elements,0,elements,0,i);
+                    System.arraycopy(this.elements,i + 1,elements,i,this.size - i - 1);
+                    return new IntList(elements,elements.length);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * 按新的编号复制一份
+         */
+        IntList remap(int[] newIds){
+            if(this.size == 0){
+                return EMPTY;
+            }
+            int[] elements = new int[this.size];
+            for (int i = 0; i < this.size; i++) {
+                elements[i] = newIds[this.elements[i]];
+            }
+            return new IntList(elements,this.size);
+        }
+    }
+
+
+    /**
+     * 编号表:名称 - 编号 和 编号 - 节点,扩容时两者共用同一个名称映射
+     */
+    private static final class Table {
+
+        final Map<String,Integer> ids;
+
+        final Node[] nodes;
+
+        Table(Map<String,Integer> ids,Node[] nodes){
+            this.ids = ids;
+            this.nodes = nodes;
+        }
+    }
+
+
+    /**
+     * 某一代中一个节点的可达集合,不可变
+     */
+    private static final class Closure {
+
+        final BitSet reachable;
+
+        final int generation;
+
+        Closure(BitSet reachable,int generation){
+            this.reachable = reachable;
+            this.generation = generation;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.springframework.beans.factory.support;
+
+/**
+ * DefaultSingletonBeanRegistry的监听接口,用于采集单例创建和销毁的指标
+ *
+ * 回调在创建或销毁bean的线程上同步执行,实现必须是线程安全的,并且应该尽量轻量,
+ * 不要在回调中访问registry。没有注册监听器时registry不会计时。
+ * @see DefaultSingletonBeanRegistry#setRegistryListener
+ * @see SingletonRegistryStatistics
+ */
+public interface SingletonRegistryListener {
+
+    /**
+     * singletonFactory.getObject()成功返回之后回调
+     * @param beanName 创建的bean的名称
+     * @param nanos getObject()的耗时(纳秒)
+     */
+    default void singletonCreated(String beanName,long nanos){
+    }
+
+    /**
+     * 获取到单例的创建锁之后回调
+     * @param beanName 要创建的bean的名称
+     * @param waitNanos 等待锁的时间(纳秒)
+     */
+    default void creationLockAcquired(String beanName,long waitNanos){
+    }
+
+    /**
+     * getSingleton(beanName, allowEarlyReference)返回了早期引用时回调
+     * @param beanName bean的名称
+     * @param fromSingletonFactory true表示这次调用通过singletonFactories创建了早期引用,
+     * false表示直接从earlySingletonObjects中返回
+     */
+    default void earlyReferenceServed(String beanName,boolean fromSingletonFactory){
+    }
+
+    /**
+     * destroySingleton完成之后回调
+     * @param beanName 销毁的bean的名称
+     * @param nanos 销毁这个bean本身的耗时(纳秒),不包括先行销毁的依赖方和内部bean,它们各自回调
+     */
+    default void singletonDestroyed(String beanName,long nanos){
+    }
+
+    /**
+     * FactoryBean创建的单例对象从缓存中移除之后回调
+     * @param beanName FactoryBean的名称
+     * @param cause 移除的原因
+     */
+    default void factoryBeanObjectEvicted(String beanName,FactoryBeanObjectEvictionCause cause){
+    }
+
+    /**
+     * 没有命中类型缓存,调用了FactoryBean.getObjectType()之后回调
+     * @param beanName FactoryBean的名称
+     * @param privileged 是否通过AccessController.doPrivileged调用
+     */
+    default void factoryBeanObjectTypeResolved(String beanName,boolean privileged){
+    }
+}
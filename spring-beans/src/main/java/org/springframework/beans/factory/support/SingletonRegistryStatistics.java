@@ -0,0 +1,194 @@
+package org.springframework.beans.factory.support;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 基于LongAdder的SingletonRegistryListener实现,累计计数和耗时,记录时不分配对象
+ */
+public class SingletonRegistryStatistics implements SingletonRegistryListener {
+
+    private final LongAdder creationCount = new LongAdder();
+
+    private final LongAdder creationNanos = new LongAdder();
+
+    private final LongAdder lockAcquisitionCount = new LongAdder();
+
+    private final LongAdder lockWaitNanos = new LongAdder();
+
+    private final LongAdder earlySingletonObjectHits = new LongAdder();
+
+    private final LongAdder singletonFactoryHits = new LongAdder();
+
+    private final LongAdder destructionCount = new LongAdder();
+
+    private final LongAdder destructionNanos = new LongAdder();
+
+    /**
+     * 按原因统计的FactoryBean对象移除次数,下标为FactoryBeanObjectEvictionCause的ordinal
+     */
+    private final LongAdder[] factoryBeanObjectEvictions = new LongAdder[FactoryBeanObjectEvictionCause.values().length];
+
+
+    private final LongAdder factoryBeanObjectTypeResolutions = new LongAdder();
+
+    private final LongAdder privilegedFactoryBeanObjectTypeResolutions = new LongAdder();
+
+
+    public SingletonRegistryStatistics(){
+        for (int i = 0; i < this.factoryBeanObjectEvictions.length; i++) {
+            this.factoryBeanObjectEvictions[i] = new LongAdder();
+        }
+    }
+
+
+    @Override
+    public void singletonCreated(String beanName, long nanos) {
+        this.creationCount.increment();
+        this.creationNanos.add(nanos);
+    }
+
+    @Override
+    public void creationLockAcquired(String beanName, long waitNanos) {
+        this.lockAcquisitionCount.increment();
+        this.lockWaitNanos.add(waitNanos);
+    }
+
+    @Override
+    public void earlyReferenceServed(String beanName, boolean fromSingletonFactory) {
+        if(fromSingletonFactory){
+            this.singletonFactoryHits.increment();
+        }else{
+            this.earlySingletonObjectHits.increment();
+        }
+    }
+
+    @Override
+    public void singletonDestroyed(String beanName, long nanos) {
+        this.destructionCount.increment();
+        this.destructionNanos.add(nanos);
+    }
+
+    @Override
+    public void factoryBeanObjectEvicted(String beanName, FactoryBeanObjectEvictionCause cause) {
+        this.factoryBeanObjectEvictions[cause.ordinal()].increment();
+    }
+
+    @Override
+    public void factoryBeanObjectTypeResolved(String beanName, boolean privileged) {
+        this.factoryBeanObjectTypeResolutions.increment();
+        if(privileged){
+            this.privilegedFactoryBeanObjectTypeResolutions.increment();
+        }
+    }
+
+    /**
+     * 创建的单例个数
+     */
+    public long getCreationCount(){
+        return this.creationCount.sum();
+    }
+
+    /**
+     * singletonFactory.getObject()的总耗时(纳秒)
+     */
+    public long getCreationNanos(){
+        return this.creationNanos.sum();
+    }
+
+    /**
+     * 获取创建锁的次数
+     */
+    public long getLockAcquisitionCount(){
+        return this.lockAcquisitionCount.sum();
+    }
+
+    /**
+     * 等待创建锁的总时间(纳秒)
+     */
+    public long getLockWaitNanos(){
+        return this.lockWaitNanos.sum();
+    }
+
+    /**
+     * 直接从earlySingletonObjects返回早期引用的次数
+     */
+    public long getEarlySingletonObjectHits(){
+        return this.earlySingletonObjectHits.sum();
+    }
+
+    /**
+     * 通过singletonFactories创建早期引用的次数
+     */
+    public long getSingletonFactoryHits(){
+        return this.singletonFactoryHits.sum();
+    }
+
+    /**
+     * destroySingleton的次数
+     */
+    public long getDestructionCount(){
+        return this.destructionCount.sum();
+    }
+
+    /**
+     * destroySingleton的总耗时(纳秒)
+     */
+    public long getDestructionNanos(){
+        return this.destructionNanos.sum();
+    }
+
+    /**
+     * 因给定原因从缓存中移除的FactoryBean对象个数
+     */
+    public long getFactoryBeanObjectEvictionCount(FactoryBeanObjectEvictionCause cause){
+        return this.factoryBeanObjectEvictions[cause.ordinal()].sum();
+    }
+
+    /**
+     * 没有命中类型缓存而调用FactoryBean.getObjectType()的次数
+     */
+    public long getFactoryBeanObjectTypeResolutionCount(){
+        return this.factoryBeanObjectTypeResolutions.sum();
+    }
+
+    /**
+     * 其中通过AccessController.doPrivileged调用的次数
+     */
+    public long getPrivilegedFactoryBeanObjectTypeResolutionCount(){
+        return this.privilegedFactoryBeanObjectTypeResolutions.sum();
+    }
+
+    /**
+     * 清空所有计数
+     */
+    public void reset(){
+        this.creationCount.reset();
+        this.creationNanos.reset();
+        this.lockAcquisitionCount.reset();
+        this.lockWaitNanos.reset();
+        this.earlySingletonObjectHits.reset();
+        this.singletonFactoryHits.reset();
+        this.destructionCount.reset();
+        this.destructionNanos.reset();
+        for (LongAdder evictions : this.factoryBeanObjectEvictions) {
+            evictions.reset();
+        }
+        this.factoryBeanObjectTypeResolutions.reset();
+        this.privilegedFactoryBeanObjectTypeResolutions.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "SingletonRegistryStatistics: created " + getCreationCount() + " (" + getCreationNanos() / 1000000 +
+                " ms), lock wait " + getLockWaitNanos() / 1000000 + " ms over " + getLockAcquisitionCount() +
+                " acquisitions, early references " + getEarlySingletonObjectHits() + " cached / " +
+                getSingletonFactoryHits() + " from factory, destroyed " + getDestructionCount() + " (" +
+                getDestructionNanos() / 1000000 + " ms), evicted FactoryBean objects " +
+                getFactoryBeanObjectEvictionCount(FactoryBeanObjectEvictionCause.REMOVED) + " removed / " +
+                getFactoryBeanObjectEvictionCount(FactoryBeanObjectEvictionCause.CONTAINED) + " contained / " +
+                getFactoryBeanObjectEvictionCount(FactoryBeanObjectEvictionCause.DEPENDENT) + " dependent / " +
+                getFactoryBeanObjectEvictionCount(FactoryBeanObjectEvictionCause.CLEARED) + " cleared, " +
+                "FactoryBean type lookups " + getFactoryBeanObjectTypeResolutionCount() + " (" +
+                getPrivilegedFactoryBeanObjectTypeResolutionCount() + " privileged)";
+    }
+}
@@ -0,0 +1,156 @@
+package org.springframework.beans.factory.support;
+
+import org.junit.Test;
+import org.springframework.beans.factory.AsyncFactoryBean;
+import org.springframework.beans.factory.BeanCreationException;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 提前开始异步创建的AsyncFactoryBean对象在第一次使用时的等待
+ */
+public class AsyncFactoryBeanObjectTests {
+
+    @Test
+    public void completedObjectIsUsed(){
+        Object object = new Object();
+        TestAsyncFactoryBean factoryBean = new TestAsyncFactoryBean(CompletableFuture.completedFuture(object),1000);
+        DefaultListableBeanFactory beanFactory = startAsync(factoryBean);
+        assertSame(object,beanFactory.getObjectFromFactoryBean(factoryBean,"async",false));
+    }
+
+    @Test(timeout = 30000)
+    public void unfinishedObjectTimesOut(){
+        TestAsyncFactoryBean factoryBean = new TestAsyncFactoryBean(new CompletableFuture<>(),50);
+        DefaultListableBeanFactory beanFactory = startAsync(factoryBean);
+        try{
+            beanFactory.getObjectFromFactoryBean(factoryBean,"async",false);
+            fail("expected BeanCreationException");
+        }catch(BeanCreationException ex){
+            assertTrue(ex.getCause() instanceof TimeoutException);
+        }
+    }
+
+    /**
+     * 超时之后再次获取仍然等待同一个future,不会再次调用getObjectAsync()
+     */
+    @Test(timeout = 30000)
+    public void retryAfterTimeoutWaitsForSameFuture(){
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        TestAsyncFactoryBean factoryBean = new TestAsyncFactoryBean(future,50);
+        DefaultListableBeanFactory beanFactory = startAsync(factoryBean);
+        for (int i = 0; i < 2; i++) {
+            try{
+                beanFactory.getObjectFromFactoryBean(factoryBean,"async",false);
+                fail("expected BeanCreationException");
+            }catch(BeanCreationException ex){
+                assertTrue(ex.getCause() instanceof TimeoutException);
+            }
+        }
+        Object object = new Object();
+        future.complete(object);
+        assertSame(object,beanFactory.getObjectFromFactoryBean(factoryBean,"async",false));
+        assertSame(object,beanFactory.getObjectFromFactoryBean(factoryBean,"async",false));
+        assertEquals(1,factoryBean.calls.get());
+    }
+
+    /**
+     * 失败的结果被保留,之后的获取得到同样的失败
+     */
+    @Test
+    public void failureIsKept(){
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        IllegalStateException failure = new IllegalStateException("failed");
+        future.completeExceptionally(failure);
+        TestAsyncFactoryBean factoryBean = new TestAsyncFactoryBean(future,1000);
+        DefaultListableBeanFactory beanFactory = startAsync(factoryBean);
+        for (int i = 0; i < 2; i++) {
+            try{
+                beanFactory.getObjectFromFactoryBean(factoryBean,"async",false);
+                fail("expected BeanCreationException");
+            }catch(BeanCreationException ex){
+                assertSame(failure,ex.getCause());
+            }
+        }
+        assertEquals(1,factoryBean.calls.get());
+    }
+
+    /**
+     * 默认的getObject()同样有等待时间的限制
+     */
+    @Test(timeout = 30000)
+    public void defaultGetObjectIsBounded() throws Exception {
+        TestAsyncFactoryBean factoryBean = new TestAsyncFactoryBean(new CompletableFuture<>(),50);
+        try{
+            factoryBean.getObject();
+            fail("expected TimeoutException");
+        }catch(TimeoutException ex){
+            //expected
+        }
+    }
+
+    @Test
+    public void cancelledObjectFails(){
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        future.cancel(false);
+        TestAsyncFactoryBean factoryBean = new TestAsyncFactoryBean(future,1000);
+        DefaultListableBeanFactory beanFactory = startAsync(factoryBean);
+        try{
+            beanFactory.getObjectFromFactoryBean(factoryBean,"async",false);
+            fail("expected BeanCreationException");
+        }catch(BeanCreationException ex){
+            assertTrue(ex.getCause() instanceof CancellationException);
+        }
+    }
+
+    private static DefaultListableBeanFactory startAsync(TestAsyncFactoryBean factoryBean){
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        beanFactory.registerSingleton("async",factoryBean);
+        assertTrue(beanFactory.startAsyncFactoryBeanObject("async",factoryBean));
+        return beanFactory;
+    }
+
+
+    private static class TestAsyncFactoryBean implements AsyncFactoryBean<Object> {
+
+        final AtomicInteger calls = new AtomicInteger();
+
+        private final CompletableFuture<Object> future;
+
+        private final long timeout;
+
+        TestAsyncFactoryBean(CompletableFuture<Object> future,long timeout) {
+            this.future = future;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public CompletableFuture<Object> getObjectAsync() {
+            this.calls.incrementAndGet();
+            return this.future;
+        }
+
+        @Override
+        public long getObjectTimeout() {
+            return this.timeout;
+        }
+
+        @Override
+        public Class<?> getObjectType() {
+            return Object.class;
+        }
+
+        @Override
+        public boolean isSingleton() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.springframework.beans.factory.support;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 10000个bean的依赖图上isDependent的耗时:
+ * chain是一条很深的依赖链,fanOut是一个bean被其余所有bean直接依赖。
+ * cold在每次调用前让传递闭包失效,测的是第一次遍历的开销;memoized测的是闭包缓存命中之后的查询。
+ * 运行方式:mvn test-compile 之后用 org.openjdk.jmh.Main DependencyReachabilityBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DependencyReachabilityBenchmark {
+
+    private static final int BEAN_COUNT = 10000;
+
+    private static final String SOURCE = "bean0";
+
+    private static final String TARGET = "bean" + (BEAN_COUNT - 1);
+
+
+    @State(Scope.Thread)
+    public static class Graph {
+
+        @Param({"chain", "fanOut"})
+        public String shape;
+
+        public DefaultListableBeanFactory beanFactory;
+
+        @Setup(Level.Trial)
+        public void setUp(){
+            this.beanFactory = new DefaultListableBeanFactory();
+            for (int i = 1; i < BEAN_COUNT; i++) {
+                String beanName = ("chain".equals(this.shape) ? "bean" + (i - 1) : SOURCE);
+                this.beanFactory.registerDependentBean(beanName,"bean" + i);
+            }
+            //同时建好闭包缓存
+            if(!this.beanFactory.isDependent(SOURCE,TARGET)){
+                throw new IllegalStateException(SOURCE + " should reach " + TARGET);
+            }
+        }
+    }
+
+    /**
+     * 每次调用前添加再移除一条无关的依赖,让所有缓存的闭包失效
+     */
+    @State(Scope.Thread)
+    public static class ColdGraph extends Graph {
+
+        @Setup(Level.Invocation)
+        public void invalidateClosures(){
+            this.beanFactory.registerDependentBean("unrelated","unrelatedDependent");
+            this.beanFactory.destroySingleton("unrelated");
+        }
+    }
+
+    @Benchmark
+    public boolean cold(ColdGraph graph){
+        return graph.beanFactory.isDependent(SOURCE,TARGET);
+    }
+
+    @Benchmark
+    public boolean memoized(Graph graph){
+        return graph.beanFactory.isDependent(SOURCE,TARGET);
+    }
+}
@@ -0,0 +1,109 @@
+package org.springframework.beans.factory.support;
+
+import org.junit.Test;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 不加锁读取早期引用时,和创建完成的单例之间的竞争
+ */
+public class EarlySingletonReferenceTests {
+
+    /**
+     * 单例工厂运行期间单例已经创建完成,读取方拿到完整的单例,早期引用不会被发布
+     */
+    @Test(timeout = 30000)
+    public void earlyReferenceIsNotPublishedAfterSingletonIsAdded() throws Exception {
+        DefaultSingletonBeanRegistry registry = new DefaultSingletonBeanRegistry();
+        AtomicInteger earlyReferencesServed = new AtomicInteger();
+        registry.setRegistryListener(new SingletonRegistryListener() {
+            @Override
+            public void earlyReferenceServed(String beanName, boolean fromSingletonFactory) {
+                earlyReferencesServed.incrementAndGet();
+            }
+        });
+        Object raw = new Object();
+        Object full = new Object();
+        CountDownLatch factoryEntered = new CountDownLatch(1);
+        CountDownLatch singletonAdded = new CountDownLatch(1);
+        registry.beforeSingletonCreation("bean");
+        registry.addSingletonFactory("bean",() -> {
+            factoryEntered.countDown();
+            try{
+                singletonAdded.await();
+            }catch(InterruptedException ex){
+                Thread.currentThread().interrupt();
+            }
+            return raw;
+        });
+
+        AtomicReference<Object> read = new AtomicReference<>();
+        Thread reader = new Thread(() -> read.set(registry.getSingleton("bean",true)));
+        reader.start();
+        factoryEntered.await();
+        registry.addSingleton("bean",full);
+        registry.afterSingletonCreation("bean");
+        singletonAdded.countDown();
+        reader.join();
+
+        assertSame(full,read.get());
+        assertFalse(earlySingletonObjects(registry).containsKey("bean"));
+        assertEquals(0,earlyReferencesServed.get());
+    }
+
+    /**
+     * 读取早期引用和添加单例同时进行:读取方得到早期引用或完整的单例,结束后不会留下早期引用
+     */
+    @Test(timeout = 60000)
+    public void racingReaderNeverLeavesEarlyReference() throws Exception {
+        for (int i = 0; i < 500; i++) {
+            DefaultSingletonBeanRegistry registry = new DefaultSingletonBeanRegistry();
+            Object raw = new Object();
+            Object full = new Object();
+            registry.beforeSingletonCreation("bean");
+            registry.addSingletonFactory("bean",() -> raw);
+            CyclicBarrier start = new CyclicBarrier(2);
+            AtomicReference<Object> read = new AtomicReference<>();
+            Thread reader = new Thread(() -> {
+                await(start);
+                read.set(registry.getSingleton("bean",true));
+            });
+            reader.start();
+            await(start);
+            registry.addSingleton("bean",full);
+            reader.join();
+            registry.afterSingletonCreation("bean");
+
+            assertTrue(read.get() == raw || read.get() == full);
+            assertNull(earlySingletonObjects(registry).get("bean"));
+            assertSame(full,registry.getSingleton("bean",true));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String,Object> earlySingletonObjects(DefaultSingletonBeanRegistry registry){
+        Field field = ReflectionUtils.findField(DefaultSingletonBeanRegistry.class,"earlySingletonObjects");
+        ReflectionUtils.makeAccessible(field);
+        return (Map<String,Object>) ReflectionUtils.getField(field,registry);
+    }
+
+    private static void await(CyclicBarrier barrier){
+        try{
+            barrier.await();
+        }catch(Exception ex){
+            throw new IllegalStateException(ex);
+        }
+    }
+}
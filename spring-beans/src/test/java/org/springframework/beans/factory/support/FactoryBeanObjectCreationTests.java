@@ -0,0 +1,168 @@
+package org.springframework.beans.factory.support;
+
+import org.junit.Test;
+import org.springframework.beans.factory.BeanCurrentlyInCreationException;
+import org.springframework.beans.factory.FactoryBean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 单例FactoryBean对象的创建:同一个bean的并发请求共享一次创建
+ */
+public class FactoryBeanObjectCreationTests {
+
+    @Test(timeout = 30000)
+    public void concurrentRequestsShareOneCreation() throws Exception {
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        AtomicInteger calls = new AtomicInteger();
+        SingletonFactoryBean factoryBean = new SingletonFactoryBean(() -> {
+            calls.incrementAndGet();
+            Thread.sleep(50);
+            return new Object();
+        });
+        beanFactory.registerSingleton("factory",factoryBean);
+
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try{
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return beanFactory.getObjectFromFactoryBean(factoryBean,"factory",true);
+                }));
+            }
+            start.countDown();
+            Object first = results.get(0).get();
+            for (Future<Object> result : results) {
+                assertSame(first,result.get());
+            }
+        }finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1,calls.get());
+    }
+
+    /**
+     * getObject中又获取自身的对象:创建线程重入时不等待自己,外层使用已经放入缓存的对象
+     */
+    @Test(timeout = 30000)
+    public void reentrantRequestDoesNotWaitForItself(){
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        AtomicInteger calls = new AtomicInteger();
+        AtomicReference<Object> inner = new AtomicReference<>();
+        AtomicReference<SingletonFactoryBean> self = new AtomicReference<>();
+        SingletonFactoryBean factoryBean = new SingletonFactoryBean(() -> {
+            if(calls.incrementAndGet() == 1){
+                inner.set(beanFactory.getObjectFromFactoryBean(self.get(),"factory",true));
+            }
+            return new Object();
+        });
+        self.set(factoryBean);
+        beanFactory.registerSingleton("factory",factoryBean);
+
+        Object object = beanFactory.getObjectFromFactoryBean(factoryBean,"factory",true);
+        assertNotNull(inner.get());
+        assertSame(inner.get(),object);
+        assertSame(object,beanFactory.getObjectFromFactoryBean(factoryBean,"factory",true));
+        assertEquals(2,calls.get());
+    }
+
+    /**
+     * 两个FactoryBean在不同线程上互相获取对方的对象,环被报告出来而不是一直等待
+     */
+    @Test(timeout = 30000)
+    public void crossFactoryBeanCycleIsReported() throws Exception {
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        CountDownLatch bothCreating = new CountDownLatch(2);
+        AtomicReference<SingletonFactoryBean> first = new AtomicReference<>();
+        AtomicReference<SingletonFactoryBean> second = new AtomicReference<>();
+        first.set(new SingletonFactoryBean(() -> {
+            awaitBoth(bothCreating);
+            return beanFactory.getObjectFromFactoryBean(second.get(),"second",true);
+        }));
+        second.set(new SingletonFactoryBean(() -> {
+            awaitBoth(bothCreating);
+            return beanFactory.getObjectFromFactoryBean(first.get(),"first",true);
+        }));
+        beanFactory.registerSingleton("first",first.get());
+        beanFactory.registerSingleton("second",second.get());
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        List<Throwable> failures = new ArrayList<>();
+        try{
+            Future<?> firstResult = executor.submit(() -> beanFactory.getObjectFromFactoryBean(first.get(),"first",true));
+            Future<?> secondResult = executor.submit(() -> beanFactory.getObjectFromFactoryBean(second.get(),"second",true));
+            for (Future<?> result : new Future<?>[]{firstResult, secondResult}) {
+                try{
+                    result.get(10,TimeUnit.SECONDS);
+                }catch(ExecutionException ex){
+                    failures.add(ex.getCause());
+                }
+            }
+        }finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(2,failures.size());
+        boolean deadlockReported = false;
+        for (Throwable failure : failures) {
+            for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+                if(cause instanceof BeanCurrentlyInCreationException && cause.getMessage().contains("Deadlock")){
+                    deadlockReported = true;
+                    assertTrue(cause.getMessage(),cause.getMessage().contains("'first'"));
+                    assertTrue(cause.getMessage(),cause.getMessage().contains("'second'"));
+                }
+            }
+        }
+        assertTrue(deadlockReported);
+    }
+
+    private static void awaitBoth(CountDownLatch bothCreating) throws InterruptedException {
+        bothCreating.countDown();
+        if(!bothCreating.await(10,TimeUnit.SECONDS)){
+            throw new IllegalStateException("other creator did not start");
+        }
+    }
+
+
+    private static class SingletonFactoryBean implements FactoryBean<Object> {
+
+        private final Callable<Object> creation;
+
+        SingletonFactoryBean(Callable<Object> creation) {
+            this.creation = creation;
+        }
+
+        @Override
+        public Object getObject() throws Exception {
+            return this.creation.call();
+        }
+
+        @Override
+        public Class<?> getObjectType() {
+            return Object.class;
+        }
+
+        @Override
+        public boolean isSingleton() {
+            return true;
+        }
+    }
+}
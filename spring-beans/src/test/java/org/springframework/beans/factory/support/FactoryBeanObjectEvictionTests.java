@@ -0,0 +1,114 @@
+package org.springframework.beans.factory.support;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.FactoryBean;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * 移除单个FactoryBean时只移除它自己,以及包含在它里面和依赖于它的bean的缓存对象和类型
+ */
+public class FactoryBeanObjectEvictionTests {
+
+    private final DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+
+    private final SingletonRegistryStatistics statistics = new SingletonRegistryStatistics();
+
+    private final Map<String,CountingFactoryBean> factoryBeans = new HashMap<>();
+
+    private final Map<String,Object> objects = new HashMap<>();
+
+    /**
+     * a包含内部bean inner,dependent依赖于a,other与a无关
+     */
+    @Before
+    public void setUp(){
+        this.beanFactory.setRegistryListener(this.statistics);
+        for (String beanName : new String[]{"a", "inner", "dependent", "other"}) {
+            CountingFactoryBean factoryBean = new CountingFactoryBean();
+            this.factoryBeans.put(beanName,factoryBean);
+            this.beanFactory.registerSingleton(beanName,factoryBean);
+            this.objects.put(beanName,this.beanFactory.getObjectFromFactoryBean(factoryBean,beanName,true));
+            assertSame(String.class,this.beanFactory.getType(beanName));
+        }
+        this.beanFactory.registerContainedBean("inner","a");
+        this.beanFactory.registerDependentBean("a","dependent");
+    }
+
+    @Test
+    public void removingUnrelatedFactoryBeanEvictsOnlyItsOwnObjectAndType(){
+        this.beanFactory.removeSingleton("other");
+
+        assertNull(this.beanFactory.getCacheObjectForFactoryBean("other"));
+        for (String beanName : new String[]{"a", "inner", "dependent"}) {
+            assertSame(this.objects.get(beanName),this.beanFactory.getCacheObjectForFactoryBean(beanName));
+            assertSame(String.class,this.beanFactory.getType(beanName));
+            assertEquals(1,this.factoryBeans.get(beanName).typeCalls.get());
+        }
+        assertEvictions(1,0,0);
+
+        //重新注册后类型和对象都需要重新获取
+        CountingFactoryBean other = this.factoryBeans.get("other");
+        this.beanFactory.registerSingleton("other",other);
+        assertSame(String.class,this.beanFactory.getType("other"));
+        assertEquals(2,other.typeCalls.get());
+        assertNotSame(this.objects.get("other"),this.beanFactory.getObjectFromFactoryBean(other,"other",true));
+        assertEquals(2,other.objectCalls.get());
+    }
+
+    @Test
+    public void removingFactoryBeanEvictsContainedAndDependentObjects(){
+        this.beanFactory.removeSingleton("a");
+
+        assertNull(this.beanFactory.getCacheObjectForFactoryBean("a"));
+        assertNull(this.beanFactory.getCacheObjectForFactoryBean("inner"));
+        assertNull(this.beanFactory.getCacheObjectForFactoryBean("dependent"));
+        assertSame(this.objects.get("other"),this.beanFactory.getCacheObjectForFactoryBean("other"));
+        assertSame(String.class,this.beanFactory.getType("other"));
+        assertEquals(1,this.factoryBeans.get("other").typeCalls.get());
+        assertEvictions(1,1,1);
+
+        //没有缓存对象的bean再次移除不会计数
+        this.beanFactory.removeSingleton("inner");
+        assertEvictions(1,1,1);
+    }
+
+    private void assertEvictions(long removed,long contained,long dependent){
+        assertEquals(removed,this.statistics.getFactoryBeanObjectEvictionCount(FactoryBeanObjectEvictionCause.REMOVED));
+        assertEquals(contained,this.statistics.getFactoryBeanObjectEvictionCount(FactoryBeanObjectEvictionCause.CONTAINED));
+        assertEquals(dependent,this.statistics.getFactoryBeanObjectEvictionCount(FactoryBeanObjectEvictionCause.DEPENDENT));
+        assertEquals(0,this.statistics.getFactoryBeanObjectEvictionCount(FactoryBeanObjectEvictionCause.CLEARED));
+    }
+
+
+    private static class CountingFactoryBean implements FactoryBean<Object> {
+
+        final AtomicInteger objectCalls = new AtomicInteger();
+
+        final AtomicInteger typeCalls = new AtomicInteger();
+
+        @Override
+        public Object getObject() {
+            return "object " + this.objectCalls.incrementAndGet();
+        }
+
+        @Override
+        public Class<?> getObjectType() {
+            this.typeCalls.incrementAndGet();
+            return String.class;
+        }
+
+        @Override
+        public boolean isSingleton() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.springframework.beans.factory.support;
+
+import org.junit.Test;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.PooledFactoryBean;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * FactoryBeanObjectPool以及PooledFactoryBean对象获取的测试
+ */
+public class FactoryBeanObjectPoolTests {
+
+    @Test
+    public void onlyBorrowedObjectsCanBeReleased(){
+        FactoryBeanObjectPool pool = new FactoryBeanObjectPool(2,60000);
+        Object object = new Object();
+        assertFalse(pool.release(object));
+        pool.track(object);
+        assertTrue(pool.release(object));
+        //已经归还过
+        assertFalse(pool.release(object));
+        assertSame(object,pool.borrow());
+        assertTrue(pool.release(object));
+        assertEquals(2,pool.getReturnCount());
+    }
+
+    @Test
+    public void fullPoolDropsAndDestroys(){
+        FactoryBeanObjectPool pool = new FactoryBeanObjectPool(1,60000);
+        DisposableObject kept = new DisposableObject();
+        DisposableObject dropped = new DisposableObject();
+        pool.track(kept);
+        pool.track(dropped);
+        assertTrue(pool.release(kept));
+        assertFalse(pool.release(dropped));
+        assertEquals(1,pool.getDropCount());
+        assertEquals(0,pool.getEvictionCount());
+        assertEquals(0,kept.destroyed.get());
+        assertEquals(1,dropped.destroyed.get());
+    }
+
+    @Test
+    public void expiredAndClosedObjectsAreDestroyed() throws Exception {
+        FactoryBeanObjectPool pool = new FactoryBeanObjectPool(2,0);
+        DisposableObject expired = new DisposableObject();
+        pool.track(expired);
+        assertTrue(pool.release(expired));
+        Thread.sleep(5);
+        assertEquals(1,pool.evictIdle());
+        assertEquals(1,expired.destroyed.get());
+
+        FactoryBeanObjectPool closedPool = new FactoryBeanObjectPool(2,60000);
+        DisposableObject idle = new DisposableObject();
+        DisposableObject borrowed = new DisposableObject();
+        closedPool.track(idle);
+        closedPool.track(borrowed);
+        assertTrue(closedPool.release(idle));
+        closedPool.close();
+        assertEquals(1,idle.destroyed.get());
+        assertFalse(closedPool.release(borrowed));
+        assertEquals(1,borrowed.destroyed.get());
+        assertNull(closedPool.borrow());
+    }
+
+    @Test
+    public void onlyPostProcessedObjectsArePooled(){
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        PooledFactoryBean<Object> factoryBean = new PooledFactoryBean<Object>() {
+            @Override
+            public Object getObject() {
+                return new Object();
+            }
+
+            @Override
+            public Class<?> getObjectType() {
+                return Object.class;
+            }
+
+            @Override
+            public boolean isSingleton() {
+                return false;
+            }
+        };
+        beanFactory.registerSingleton("pooled",factoryBean);
+
+        Object raw = beanFactory.getObjectFromFactoryBean(factoryBean,"pooled",false);
+        assertFalse(beanFactory.returnFactoryBeanObject("pooled",raw));
+
+        Object processed = beanFactory.getObjectFromFactoryBean(factoryBean,"pooled",true);
+        assertTrue(beanFactory.returnFactoryBeanObject("pooled",processed));
+        assertNotSame(processed,beanFactory.getObjectFromFactoryBean(factoryBean,"pooled",false));
+        assertSame(processed,beanFactory.getObjectFromFactoryBean(factoryBean,"pooled",true));
+        assertFalse(beanFactory.returnFactoryBeanObject("other",processed));
+    }
+
+
+    private static class DisposableObject implements DisposableBean {
+
+        final AtomicInteger destroyed = new AtomicInteger();
+
+        @Override
+        public void destroy() {
+            this.destroyed.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.springframework.beans.factory.support;
+
+import org.junit.Test;
+import org.springframework.beans.factory.FactoryBean;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * getType对FactoryBean对象类型的解析和缓存
+ */
+public class FactoryBeanObjectTypeTests {
+
+    @Test
+    public void objectTypeIsResolvedOnceAfterCreation(){
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        SingletonRegistryStatistics statistics = new SingletonRegistryStatistics();
+        beanFactory.setRegistryListener(statistics);
+        TypedFactoryBean factoryBean = new TypedFactoryBean(String.class);
+        beanFactory.registerSingleton("factory",factoryBean);
+        beanFactory.registerAlias("factory","alias");
+
+        assertSame(String.class,beanFactory.getType("factory"));
+        assertSame(String.class,beanFactory.getType("alias"));
+        assertTrue(beanFactory.isTypeMatch("factory",CharSequence.class));
+        assertFalse(beanFactory.isTypeMatch("factory",Integer.class));
+        assertSame(TypedFactoryBean.class,beanFactory.getType("&factory"));
+        assertEquals(1,factoryBean.calls.get());
+        assertEquals(1,statistics.getFactoryBeanObjectTypeResolutionCount());
+    }
+
+    @Test
+    public void objectTypeIsNotCachedDuringCreation(){
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        TypedFactoryBean factoryBean = new TypedFactoryBean(CharSequence.class);
+        beanFactory.registerSingleton("factory",factoryBean);
+
+        beanFactory.beforeSingletonCreation("factory");
+        try{
+            assertSame(CharSequence.class,beanFactory.getType("factory"));
+        }finally {
+            beanFactory.afterSingletonCreation("factory");
+        }
+        //创建完成后得到更具体的类型
+        factoryBean.objectType = String.class;
+        assertSame(String.class,beanFactory.getType("factory"));
+        assertSame(String.class,beanFactory.getType("factory"));
+        assertEquals(2,factoryBean.calls.get());
+    }
+
+
+    private static class TypedFactoryBean implements FactoryBean<Object> {
+
+        final AtomicInteger calls = new AtomicInteger();
+
+        volatile Class<?> objectType;
+
+        TypedFactoryBean(Class<?> objectType) {
+            this.objectType = objectType;
+        }
+
+        @Override
+        public Object getObject() {
+            return "";
+        }
+
+        @Override
+        public Class<?> getObjectType() {
+            this.calls.incrementAndGet();
+            return this.objectType;
+        }
+
+        @Override
+        public boolean isSingleton() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.springframework.beans.factory.support;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * getBean的快速路径(按原始名称缓存的单例)和完整路径(别名)的耗时对比。
+ * 用-prof gc运行可以看到快速路径每次调用的分配量
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GetBeanBenchmark {
+
+    private DefaultListableBeanFactory beanFactory;
+
+    @Setup
+    public void setUp(){
+        this.beanFactory = new DefaultListableBeanFactory();
+        this.beanFactory.registerSingleton("bean",new Object());
+        this.beanFactory.registerAlias("bean","alias");
+        this.beanFactory.getBean("bean");
+    }
+
+    @Benchmark
+    public Object cachedName(){
+        return this.beanFactory.getBean("bean");
+    }
+
+    @Benchmark
+    public Object alias(){
+        return this.beanFactory.getBean("alias");
+    }
+}
@@ -0,0 +1,30 @@
+package org.springframework.beans.factory.support;
+
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DefaultListableBeanFactory.preInstantiateSingletonsInParallel的测试
+ */
+public class ParallelPreInstantiationTests {
+
+    @Test
+    public void concurrentCreationSettingIsRestored(){
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try{
+            beanFactory.preInstantiateSingletonsInParallel(pool);
+            assertFalse(beanFactory.isAllowConcurrentSingletonCreation());
+
+            beanFactory.setAllowConcurrentSingletonCreation(true);
+            beanFactory.preInstantiateSingletonsInParallel(pool);
+            assertTrue(beanFactory.isAllowConcurrentSingletonCreation());
+        }finally {
+            pool.shutdown();
+        }
+    }
+}
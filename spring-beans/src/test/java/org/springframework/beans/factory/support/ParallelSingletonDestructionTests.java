@@ -0,0 +1,87 @@
+package org.springframework.beans.factory.support;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * destroySingletons(ExecutorService,long,long,TimeUnit)的超时和中断测试
+ */
+public class ParallelSingletonDestructionTests {
+
+    /**
+     * 排队等待线程的bean不计算单个bean的超时;超时的bean仍在运行时,不会开始销毁它的依赖
+     */
+    @Test(timeout = 30000)
+    public void beanTimeoutStartsWhenDestructionStarts() throws Exception {
+        DefaultSingletonBeanRegistry registry = new DefaultSingletonBeanRegistry();
+        Map<String,long[]> destroyed = new ConcurrentHashMap<>();
+        registerDisposable(registry,"dependency",0,destroyed);
+        registerDisposable(registry,"queued",100,destroyed);
+        //按注册的倒序最先销毁;忽略中断,比单个bean的超时多运行一段时间
+        registerDisposable(registry,"slow",600,destroyed);
+        registry.registerDependentBean("dependency","slow");
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try{
+            Set<String> timedOut = registry.destroySingletons(executor,300,10000,TimeUnit.MILLISECONDS);
+            assertEquals(Collections.singleton("slow"),timedOut);
+        }finally {
+            executor.shutdownNow();
+        }
+        assertEquals(new HashSet<>(Arrays.asList("slow","queued","dependency")),destroyed.keySet());
+        assertTrue(destroyed.get("dependency")[0] >= destroyed.get("slow")[1]);
+    }
+
+    @Test(timeout = 30000)
+    public void interruptStopsLaterWaves() throws Exception {
+        DefaultSingletonBeanRegistry registry = new DefaultSingletonBeanRegistry();
+        Map<String,long[]> destroyed = new ConcurrentHashMap<>();
+        registerDisposable(registry,"dependency",0,destroyed);
+        registerDisposable(registry,"dependent",200,destroyed);
+        registry.registerDependentBean("dependency","dependent");
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Set<String> timedOut;
+        try{
+            Thread.currentThread().interrupt();
+            timedOut = registry.destroySingletons(executor,1000,10000,TimeUnit.MILLISECONDS);
+            assertTrue(Thread.interrupted());
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10,TimeUnit.SECONDS));
+        }finally {
+            executor.shutdownNow();
+        }
+        assertTrue(timedOut.contains("dependency"));
+        assertFalse(destroyed.containsKey("dependency"));
+    }
+
+    private static void registerDisposable(DefaultSingletonBeanRegistry registry,String beanName,
+                                           long millis,Map<String,long[]> destroyed){
+        registry.registerSingleton(beanName,new Object());
+        registry.registerDisposableBean(beanName,() -> {
+            long start = System.nanoTime();
+            long end = start + TimeUnit.MILLISECONDS.toNanos(millis);
+            while(System.nanoTime() - end < 0){
+                try{
+                    Thread.sleep(10);
+                }catch(InterruptedException ex){
+                    //忽略中断
+                }
+            }
+            destroyed.put(beanName,new long[]{start,System.nanoTime()});
+        });
+    }
+}
@@ -0,0 +1,176 @@
+package org.springframework.beans.factory.support;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.BeanCreationException;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * ParallelSingletonPreInstantiator的调度、失败传播和统计结果
+ */
+public class ParallelSingletonPreInstantiatorTests {
+
+    private ForkJoinPool pool;
+
+    private final Map<String,Collection<String>> prerequisites = new HashMap<>();
+
+    /** bean name - {开始时间, 结束时间} */
+    private final Map<String,long[]> created = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp(){
+        this.pool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void tearDown(){
+        this.pool.shutdownNow();
+    }
+
+    @Test(timeout = 30000)
+    public void prerequisiteFinishesBeforeDependentStarts(){
+        dependsOn("b","a");
+        preInstantiate(beanName -> sleep(20),"b","a");
+
+        assertEquals(2,this.created.size());
+        assertTrue(this.created.get("a")[1] <= this.created.get("b")[0]);
+    }
+
+    @Test(timeout = 30000)
+    public void independentBeansAreCreatedConcurrently(){
+        CountDownLatch allStarted = new CountDownLatch(4);
+        preInstantiate(beanName -> {
+            allStarted.countDown();
+            try{
+                //串行创建时第一个bean会一直等到超时
+                if(!allStarted.await(10,TimeUnit.SECONDS)){
+                    throw new IllegalStateException("beans were not created concurrently");
+                }
+            }catch(InterruptedException ex){
+                Thread.currentThread().interrupt();
+            }
+        },"a","b","c","d");
+        assertEquals(4,this.created.size());
+    }
+
+    /**
+     * 环中的bean只等待已经挂载的前置依赖,每个bean仍然只创建一次
+     */
+    @Test(timeout = 30000)
+    public void cycleIsBrokenInRegistrationOrder(){
+        dependsOn("a","b");
+        dependsOn("b","a");
+        ParallelSingletonPreInstantiator.Report report = preInstantiate(beanName -> sleep(10),"a","b");
+
+        assertEquals(2,report.getBeanCount());
+        assertEquals(2,this.created.size());
+        assertTrue(this.created.get("a")[1] <= this.created.get("b")[0]);
+    }
+
+    /**
+     * 失败传给调用方,依赖失败bean的bean不会被创建
+     */
+    @Test(timeout = 30000)
+    public void failureReachesCallerAndSkipsDependents(){
+        dependsOn("b","a");
+        IllegalStateException failure = new IllegalStateException("a failed");
+        try{
+            preInstantiate(beanName -> {
+                if(beanName.equals("a")){
+                    throw failure;
+                }
+            },"a","b","c");
+            fail("expected BeanCreationException");
+        }catch(BeanCreationException ex){
+            assertSame(failure,ex.getCause());
+        }
+        assertFalse(this.created.containsKey("b"));
+        assertTrue(this.created.containsKey("c"));
+    }
+
+    @Test(timeout = 30000)
+    public void beansExceptionIsRethrownAsIs(){
+        BeanCreationException failure = new BeanCreationException("a","failed");
+        try{
+            preInstantiate(beanName -> {
+                throw failure;
+            },"a");
+            fail("expected BeanCreationException");
+        }catch(BeanCreationException ex){
+            assertSame(failure,ex);
+        }
+    }
+
+    /**
+     * a <- b, a <- c, b <- d, c <- d,c最慢,关键路径是a, c, d
+     */
+    @Test(timeout = 30000)
+    public void diamondReportsCriticalPath(){
+        dependsOn("b","a");
+        dependsOn("c","a");
+        dependsOn("d","b","c");
+        Map<String,Integer> millis = new HashMap<>();
+        millis.put("a",10);
+        millis.put("b",10);
+        millis.put("c",60);
+        millis.put("d",10);
+        ParallelSingletonPreInstantiator.Report report =
+                preInstantiate(beanName -> sleep(millis.get(beanName)),"a","b","c","d");
+
+        assertEquals(4,report.getBeanCount());
+        assertEquals(Arrays.asList("a","c","d"),report.getCriticalPath());
+        assertTrue(report.getCriticalPathNanos() >= TimeUnit.MILLISECONDS.toNanos(80));
+        assertTrue(report.getTotalWorkNanos() >= TimeUnit.MILLISECONDS.toNanos(90));
+        assertTrue(report.getTotalWorkNanos() >= report.getCriticalPathNanos());
+        assertTrue(report.getWallTimeNanos() >= report.getCriticalPathNanos());
+        assertEquals((double) report.getTotalWorkNanos() / report.getWallTimeNanos(),report.getParallelism(),1e-9);
+    }
+
+    private void dependsOn(String beanName,String... prerequisites){
+        this.prerequisites.put(beanName,Arrays.asList(prerequisites));
+    }
+
+    private ParallelSingletonPreInstantiator.Report preInstantiate(Creator creator,String... beanNames){
+        List<String> names = Arrays.asList(beanNames);
+        return new ParallelSingletonPreInstantiator(this.pool).preInstantiate(names,
+                beanName -> this.prerequisites.getOrDefault(beanName,Collections.emptyList()),
+                beanName -> {
+                    long start = System.nanoTime();
+                    creator.create(beanName);
+                    if(this.created.put(beanName,new long[]{start, System.nanoTime()}) != null){
+                        throw new IllegalStateException("'" + beanName + "' created twice");
+                    }
+                });
+    }
+
+    private static void sleep(long millis){
+        try{
+            Thread.sleep(millis);
+        }catch(InterruptedException ex){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private interface Creator {
+
+        void create(String beanName);
+    }
+}
@@ -0,0 +1,101 @@
+package org.springframework.beans.factory.support;
+
+import org.junit.Test;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * AbstractBeanFactory中getBean快速路径的缓存失效
+ */
+public class ResolvedSingletonCacheTests {
+
+    @Test
+    public void removeSingletonInvalidatesCachedBean(){
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        Object first = new Object();
+        beanFactory.registerSingleton("bean",first);
+        assertSame(first,beanFactory.getBean("bean"));
+
+        beanFactory.removeSingleton("bean");
+        assertNoBean(beanFactory,"bean");
+
+        Object second = new Object();
+        beanFactory.registerSingleton("bean",second);
+        assertSame(second,beanFactory.getBean("bean"));
+    }
+
+    @Test
+    public void aliasOverCachedNameInvalidatesCachedBean(){
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        Object bean = new Object();
+        Object target = new Object();
+        beanFactory.registerSingleton("bean",bean);
+        beanFactory.registerSingleton("target",target);
+        assertSame(bean,beanFactory.getBean("bean"));
+
+        //"bean"变成了"target"的别名
+        beanFactory.registerAlias("target","bean");
+        assertSame(target,beanFactory.getBean("bean"));
+
+        beanFactory.removeAlias("bean");
+        assertSame(bean,beanFactory.getBean("bean"));
+    }
+
+    @Test
+    public void clearSingletonCacheInvalidatesCachedBeans(){
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        beanFactory.registerSingleton("first",new Object());
+        beanFactory.registerSingleton("second",new Object());
+        beanFactory.getBean("first");
+        beanFactory.getBean("second");
+
+        beanFactory.clearSingletonCache();
+        assertNoBean(beanFactory,"first");
+        assertNoBean(beanFactory,"second");
+    }
+
+    /**
+     * 命中快速路径的getBean不分配对象;JVM不支持按线程统计分配量时跳过
+     */
+    @Test
+    public void cachedLookupDoesNotAllocate(){
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if(!(threadMXBean instanceof com.sun.management.ThreadMXBean)){
+            return;
+        }
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threadMXBean;
+        if(!allocations.isThreadAllocatedMemorySupported() || !allocations.isThreadAllocatedMemoryEnabled()){
+            return;
+        }
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        beanFactory.registerSingleton("bean",new Object());
+        String beanName = "bean";
+        for (int i = 0; i < 100000; i++) {
+            beanFactory.getBean(beanName);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100000; i++) {
+            beanFactory.getBean(beanName);
+        }
+        long allocated = allocations.getThreadAllocatedBytes(threadId) - before;
+        //读取分配量本身会分配少量内存,每次getBean都分配时至少是1.6MB
+        assertTrue("allocated " + allocated + " bytes",allocated < 16 * 1024);
+    }
+
+    private static void assertNoBean(DefaultListableBeanFactory beanFactory,String name){
+        try{
+            beanFactory.getBean(name);
+            fail("expected NoSuchBeanDefinitionException for '" + name + "'");
+        }catch(NoSuchBeanDefinitionException ex){
+            //expected
+        }
+    }
+}
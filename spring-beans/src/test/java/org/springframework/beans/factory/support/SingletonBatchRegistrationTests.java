@@ -0,0 +1,115 @@
+package org.springframework.beans.factory.support;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * registerSingletons批量注册:整批校验,要么全部可见,要么一个都不注册
+ */
+public class SingletonBatchRegistrationTests {
+
+    @Test
+    public void duplicateNamesRejectWholeBatch(){
+        DefaultSingletonBeanRegistry registry = new DefaultSingletonBeanRegistry();
+        registry.registerSingleton("a",new Object());
+        registry.registerSingleton("c",new Object());
+
+        Map<String,Object> singletons = new LinkedHashMap<>();
+        singletons.put("b",new Object());
+        singletons.put("a",new Object());
+        singletons.put("c",new Object());
+        singletons.put("d",new Object());
+        try{
+            registry.registerSingletons(singletons);
+            fail("expected IllegalStateException");
+        }catch(IllegalStateException ex){
+            assertTrue(ex.getMessage(),ex.getMessage().contains("[a, c]"));
+        }
+        assertFalse(registry.containsSingleton("b"));
+        assertFalse(registry.containsSingleton("d"));
+        assertNull(registry.getSingleton("b",false));
+        assertArrayEquals(new String[]{"a", "c"},registry.getSingletonNames());
+        assertEquals(2,registry.getSingletonCount());
+    }
+
+    /**
+     * 批量比registeredSingletons的初始容量大很多时,名称仍然按注册顺序保存
+     */
+    @Test
+    public void largeBatchKeepsRegistrationOrder(){
+        DefaultSingletonBeanRegistry registry = new DefaultSingletonBeanRegistry();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            registry.registerSingleton("single" + i,new Object());
+            expected.add("single" + i);
+        }
+        Map<String,Object> singletons = new LinkedHashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            singletons.put("batch" + i,new Object());
+            expected.add("batch" + i);
+        }
+        registry.registerSingletons(singletons);
+        registry.registerSingleton("last",new Object());
+        expected.add("last");
+
+        assertEquals(expected,Arrays.asList(registry.getSingletonNames()));
+        assertEquals(expected.size(),registry.getSingletonCount());
+        for (String beanName : expected) {
+            assertTrue(beanName,registry.containsSingleton(beanName));
+        }
+    }
+
+    /**
+     * 并发读取getSingletonNames只会看到整批之前或整批之后的名称
+     */
+    @Test(timeout = 60000)
+    public void batchIsVisibleAllOrNothing() throws Exception {
+        int batchSize = 1000;
+        for (int round = 0; round < 20; round++) {
+            DefaultSingletonBeanRegistry registry = new DefaultSingletonBeanRegistry();
+            registry.registerSingleton("existing",new Object());
+            Map<String,Object> singletons = new LinkedHashMap<>();
+            for (int i = 0; i < batchSize; i++) {
+                singletons.put("bean" + i,new Object());
+            }
+
+            AtomicBoolean done = new AtomicBoolean();
+            AtomicReference<String> partial = new AtomicReference<>();
+            Thread reader = new Thread(() -> {
+                while(!done.get() && partial.get() == null){
+                    String[] names = registry.getSingletonNames();
+                    if(names.length != 1 && names.length != batchSize + 1){
+                        partial.set("saw " + names.length + " names");
+                    }
+                    //快照中已有的名称对应的单例都已经发布
+                    for (String beanName : names) {
+                        if(!registry.containsSingleton(beanName)){
+                            partial.set("'" + beanName + "' listed before it was registered");
+                        }
+                    }
+                }
+            });
+            reader.start();
+            registry.registerSingletons(singletons);
+            done.set(true);
+            reader.join();
+
+            assertNull(partial.get(),partial.get());
+            assertEquals(batchSize + 1,registry.getSingletonNames().length);
+        }
+    }
+}
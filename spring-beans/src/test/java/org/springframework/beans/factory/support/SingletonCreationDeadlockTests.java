@@ -0,0 +1,143 @@
+package org.springframework.beans.factory.support;
+
+import org.junit.Test;
+import org.springframework.beans.factory.BeanCurrentlyInCreationException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 并发创建单例时,两个线程互相等待对方的创建锁
+ */
+public class SingletonCreationDeadlockTests {
+
+    /**
+     * 线程creator-a创建a时需要b,线程creator-b创建b时需要a,后等待的一方发现环并失败,另一方正常完成
+     */
+    @Test(timeout = 30000)
+    public void crossCreationFailsOnOneSide() throws Exception {
+        DefaultSingletonBeanRegistry registry = new DefaultSingletonBeanRegistry();
+        registry.setAllowConcurrentSingletonCreation(true);
+        CountDownLatch bothCreating = new CountDownLatch(2);
+        Result a = new Result();
+        Result b = new Result();
+        Thread creatorA = new Thread(() -> a.run(() -> registry.getSingleton("a",() -> {
+            awaitBoth(bothCreating);
+            return new Holder(registry.getSingleton("b",Object::new));
+        })),"creator-a");
+        Thread creatorB = new Thread(() -> b.run(() -> registry.getSingleton("b",() -> {
+            awaitBoth(bothCreating);
+            return new Holder(registry.getSingleton("a",Object::new));
+        })),"creator-b");
+        creatorA.start();
+        creatorB.start();
+        creatorA.join();
+        creatorB.join();
+
+        List<Result> failed = new ArrayList<>();
+        for (Result result : new Result[]{a, b}) {
+            if(result.failure.get() != null){
+                failed.add(result);
+            }
+        }
+        assertEquals(1,failed.size());
+        Throwable failure = failed.get(0).failure.get();
+        assertTrue(failure instanceof BeanCurrentlyInCreationException);
+        String message = failure.getMessage();
+        assertTrue(message,message.contains("thread 'creator-a'"));
+        assertTrue(message,message.contains("thread 'creator-b'"));
+        assertTrue(message,message.contains("'a'"));
+        assertTrue(message,message.contains("'b'"));
+
+        //另一方拿到了对方的锁并完成创建
+        Result succeeded = (failed.get(0) == a ? b : a);
+        assertTrue(succeeded.value.get() instanceof Holder);
+    }
+
+    /**
+     * 被等待的bean已经登记了早期引用时,发现环的一方使用早期引用,两边都能完成
+     */
+    @Test(timeout = 30000)
+    public void crossCreationUsesEarlyReference() throws Exception {
+        DefaultSingletonBeanRegistry registry = new DefaultSingletonBeanRegistry();
+        registry.setAllowConcurrentSingletonCreation(true);
+        CountDownLatch bothCreating = new CountDownLatch(2);
+        Object earlyA = new Object();
+        Object earlyB = new Object();
+        Result a = new Result();
+        Result b = new Result();
+        Thread creatorA = new Thread(() -> a.run(() -> registry.getSingleton("a",() -> {
+            registry.addSingletonFactory("a",() -> earlyA);
+            awaitBoth(bothCreating);
+            return new Holder(registry.getSingleton("b",Object::new));
+        })),"creator-a");
+        Thread creatorB = new Thread(() -> b.run(() -> registry.getSingleton("b",() -> {
+            registry.addSingletonFactory("b",() -> earlyB);
+            awaitBoth(bothCreating);
+            return new Holder(registry.getSingleton("a",Object::new));
+        })),"creator-b");
+        creatorA.start();
+        creatorB.start();
+        creatorA.join();
+        creatorB.join();
+
+        assertNull(a.failure.get());
+        assertNull(b.failure.get());
+        Object referenceFromA = ((Holder) a.value.get()).reference;
+        Object referenceFromB = ((Holder) b.value.get()).reference;
+        //恰好一方拿到的是对方的早期引用,另一方等到了对方完整的单例
+        boolean aGotEarly = (referenceFromA == earlyB);
+        boolean bGotEarly = (referenceFromB == earlyA);
+        assertTrue(aGotEarly != bGotEarly);
+        if(aGotEarly){
+            assertSame(a.value.get(),referenceFromB);
+        }else{
+            assertSame(b.value.get(),referenceFromA);
+        }
+    }
+
+    private static void awaitBoth(CountDownLatch bothCreating){
+        bothCreating.countDown();
+        try{
+            if(!bothCreating.await(10,TimeUnit.SECONDS)){
+                throw new IllegalStateException("other creator did not start");
+            }
+        }catch(InterruptedException ex){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private static class Holder {
+
+        final Object reference;
+
+        Holder(Object reference) {
+            this.reference = reference;
+        }
+    }
+
+    private static class Result {
+
+        final AtomicReference<Object> value = new AtomicReference<>();
+
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        void run(Supplier<Object> creation){
+            try{
+                this.value.set(creation.get());
+            }catch(Throwable ex){
+                this.failure.set(ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.springframework.beans.factory.support;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * 并发创建单例时按bean加锁的创建锁的测试
+ */
+public class SingletonCreationLockTests {
+
+    /**
+     * 创建过程中清空缓存时,创建锁不会被换掉,等待的线程拿到的是同一个单例
+     */
+    @Test(timeout = 30000)
+    public void clearingCacheKeepsLockOfRunningCreation() throws Exception {
+        DefaultSingletonBeanRegistry registry = new DefaultSingletonBeanRegistry();
+        registry.setAllowConcurrentSingletonCreation(true);
+        AtomicInteger created = new AtomicInteger();
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<Object> first = new AtomicReference<>();
+        AtomicReference<Object> second = new AtomicReference<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread creator = new Thread(() -> {
+            try{
+                first.set(registry.getSingleton("bean",() -> {
+                    created.incrementAndGet();
+                    entered.countDown();
+                    try{
+                        release.await();
+                    }catch(InterruptedException ex){
+                        Thread.currentThread().interrupt();
+                    }
+                    return new Object();
+                }));
+            }catch(Throwable ex){
+                failure.set(ex);
+            }
+        });
+        creator.start();
+        entered.await();
+        registry.clearSingletonCache();
+
+        Thread waiter = new Thread(() -> {
+            try{
+                second.set(registry.getSingleton("bean",() -> {
+                    created.incrementAndGet();
+                    return new Object();
+                }));
+            }catch(Throwable ex){
+                failure.set(ex);
+            }
+        });
+        waiter.start();
+        while(waiter.getState() != Thread.State.WAITING && waiter.isAlive()){
+            Thread.yield();
+        }
+        release.countDown();
+        creator.join();
+        waiter.join();
+
+        assertNull(failure.get());
+        assertEquals(1,created.get());
+        assertSame(first.get(),second.get());
+    }
+
+    /**
+     * 移除单例之后再次创建得到新的实例
+     */
+    @Test
+    public void removedSingletonIsCreatedAgain(){
+        DefaultSingletonBeanRegistry registry = new DefaultSingletonBeanRegistry();
+        registry.setAllowConcurrentSingletonCreation(true);
+        Object first = registry.getSingleton("bean",Object::new);
+        registry.removeSingleton("bean");
+        Object second = registry.getSingleton("bean",Object::new);
+        assertNotSame(first,second);
+        assertSame(second,registry.getSingleton("bean",Object::new));
+    }
+}
@@ -0,0 +1,64 @@
+package org.springframework.beans.factory.support;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 开启和关闭SingletonCreationTimeline时单例创建的耗时对比。
+ * 创建的单例只是一个Object,结果是每个单例的绝对开销,相对开销取决于实际bean的创建耗时
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SingletonCreationTimelineBenchmark {
+
+    private static final int BEAN_COUNT = 1000;
+
+    @Param({"false", "true"})
+    public boolean timeline;
+
+    private final String[] beanNames = new String[BEAN_COUNT];
+
+    private DefaultListableBeanFactory beanFactory;
+
+    @Setup(Level.Trial)
+    public void setUpNames(){
+        for (int i = 0; i < BEAN_COUNT; i++) {
+            this.beanNames[i] = "bean" + i;
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpBeanFactory(){
+        this.beanFactory = new DefaultListableBeanFactory();
+        if(this.timeline){
+            this.beanFactory.setCreationTimeline(new SingletonCreationTimeline());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BEAN_COUNT)
+    public Object createSingletons(){
+        Object singleton = null;
+        for (String beanName : this.beanNames) {
+            singleton = this.beanFactory.getSingleton(beanName,Object::new);
+        }
+        return singleton;
+    }
+}
@@ -0,0 +1,125 @@
+package org.springframework.beans.factory.support;
+
+import org.junit.Test;
+import org.springframework.beans.factory.FactoryBean;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SingletonCreationTimeline的测试
+ */
+public class SingletonCreationTimelineTests {
+
+    @Test
+    public void finishingUnknownSpanKeepsOpenSpans() throws Exception {
+        SingletonCreationTimeline timeline = new SingletonCreationTimeline();
+        timeline.spanStarted("outer",SingletonCreationTimeline.CATEGORY_SINGLETON);
+        timeline.spanStarted("inner",SingletonCreationTimeline.CATEGORY_SINGLETON);
+        timeline.spanFinished("unrelated");
+        assertEquals(0,timeline.getSpanCount());
+
+        timeline.spanFinished("inner");
+        assertEquals(1,timeline.getSpanCount());
+        timeline.spanFinished("outer");
+        assertEquals(2,timeline.getSpanCount());
+
+        StringWriter writer = new StringWriter();
+        timeline.writeChromeTrace(writer);
+        assertTrue(writer.toString().contains("\"parent\":\"outer\""));
+    }
+
+    @Test
+    public void finishingOuterSpanFinishesAbandonedInnerSpans(){
+        SingletonCreationTimeline timeline = new SingletonCreationTimeline();
+        timeline.spanStarted("outer",SingletonCreationTimeline.CATEGORY_SINGLETON);
+        timeline.spanStarted("failed",SingletonCreationTimeline.CATEGORY_FACTORY_BEAN_OBJECT);
+        timeline.spanFinished("outer");
+        assertEquals(2,timeline.getSpanCount());
+
+        //之后的时间段不受影响
+        timeline.spanStarted("next",SingletonCreationTimeline.CATEGORY_SINGLETON);
+        timeline.spanFinished("next");
+        assertEquals(3,timeline.getSpanCount());
+    }
+
+    @Test
+    public void jfrEventsAreOptional(){
+        SingletonCreationTimeline timeline = new SingletonCreationTimeline(true);
+        timeline.spanStarted("bean",SingletonCreationTimeline.CATEGORY_SINGLETON);
+        timeline.spanFinished("bean");
+        assertEquals(1,timeline.getSpanCount());
+    }
+
+    @Test
+    public void spansBeyondMaxSpansAreOnlyCounted() throws Exception {
+        SingletonCreationTimeline timeline = new SingletonCreationTimeline(false,3);
+        for (int i = 0; i < 5; i++) {
+            timeline.spanStarted("bean" + i,SingletonCreationTimeline.CATEGORY_SINGLETON);
+            timeline.spanFinished("bean" + i);
+        }
+        assertEquals(3,timeline.getSpanCount());
+        assertEquals(2,timeline.getDroppedSpanCount());
+        StringWriter writer = new StringWriter();
+        timeline.writeChromeTrace(writer);
+        assertTrue(writer.toString().contains("\"bean2\""));
+        assertFalse(writer.toString().contains("\"bean3\""));
+
+        timeline.clear();
+        assertEquals(0,timeline.getSpanCount());
+        assertEquals(0,timeline.getDroppedSpanCount());
+        timeline.spanStarted("next",SingletonCreationTimeline.CATEGORY_SINGLETON);
+        timeline.spanFinished("next");
+        assertEquals(1,timeline.getSpanCount());
+    }
+
+    /**
+     * 每次获取原型FactoryBean对象都会记录时间段,保留的个数不超过maxSpans
+     */
+    @Test
+    public void repeatedPrototypeObjectsStayBounded(){
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        SingletonCreationTimeline timeline = new SingletonCreationTimeline(false,100);
+        beanFactory.setCreationTimeline(timeline);
+        FactoryBean<Object> factoryBean = new FactoryBean<Object>() {
+            @Override
+            public Object getObject() {
+                return new Object();
+            }
+
+            @Override
+            public Class<?> getObjectType() {
+                return Object.class;
+            }
+
+            @Override
+            public boolean isSingleton() {
+                return false;
+            }
+        };
+        for (int i = 0; i < 1000; i++) {
+            beanFactory.getObjectFromFactoryBean(factoryBean,"prototype",true);
+        }
+        assertEquals(100,timeline.getSpanCount());
+        assertEquals(900,timeline.getDroppedSpanCount());
+    }
+
+    @Test
+    public void stoppedTimelineRecordsNoNewSpans(){
+        SingletonCreationTimeline timeline = new SingletonCreationTimeline();
+        timeline.spanStarted("open",SingletonCreationTimeline.CATEGORY_SINGLETON);
+        timeline.stop();
+        assertTrue(timeline.isStopped());
+        timeline.spanStarted("late",SingletonCreationTimeline.CATEGORY_SINGLETON);
+        timeline.spanFinished("late");
+        assertEquals(0,timeline.getSpanCount());
+
+        //停止之前开始的时间段仍然记录
+        timeline.spanFinished("open");
+        assertEquals(1,timeline.getSpanCount());
+        assertEquals(0,timeline.getDroppedSpanCount());
+    }
+}
@@ -0,0 +1,96 @@
+package org.springframework.beans.factory.support;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SingletonDependencyGraph的测试
+ */
+public class SingletonDependencyGraphTests {
+
+    @Test
+    public void removedBeansAreRenumbered(){
+        SingletonDependencyGraph graph = new SingletonDependencyGraph();
+        graph.addDependency("root","kept");
+        for (int i = 0; i < 1000; i++) {
+            graph.addDependency("bean" + i,"dependent" + i);
+            graph.addContainedBean("bean" + i,"inner" + i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            graph.removeBean("dependent" + i);
+            graph.removeBean("inner" + i);
+            graph.removeBean("bean" + i);
+        }
+        graph.addDependency("kept","last");
+
+        assertArrayEquals(new String[]{"kept"},graph.dependentsOf("root"));
+        assertArrayEquals(new String[]{"last"},graph.dependentsOf("kept"));
+        assertArrayEquals(new String[]{"root"},graph.dependenciesOf("kept"));
+        assertTrue(graph.isReachable("root","last"));
+        assertFalse(graph.isReachable("last","root"));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0,graph.dependentsOf("bean" + i).length);
+            assertEquals(0,graph.containedBeansOf("bean" + i).length);
+            assertFalse(graph.isReachable("bean" + i,"dependent" + i));
+        }
+        List<String> withDependents = new ArrayList<>();
+        graph.forEachDependents((beanName,dependents) -> withDependents.add(beanName));
+        assertEquals(Arrays.asList("root","kept"),withDependents);
+    }
+
+    @Test(timeout = 60000)
+    public void readersSurviveGrowthRemovalAndClear() throws Exception {
+        SingletonDependencyGraph graph = new SingletonDependencyGraph();
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try{
+            List<Future<?>> readers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                readers.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while(running.get()){
+                        String beanName = "bean" + random.nextInt(500);
+                        for (String dependent : graph.dependentsOf(beanName)) {
+                            assertTrue(dependent,dependent.startsWith("bean"));
+                        }
+                        graph.dependenciesOf(beanName);
+                        graph.isReachable(beanName,"bean" + random.nextInt(500));
+                        graph.forEachDependents((name,dependents) -> assertTrue(dependents.length > 0));
+                    }
+                    return null;
+                }));
+            }
+            for (int round = 0; round < 50; round++) {
+                for (int i = 1; i < 500; i++) {
+                    graph.addDependency("bean" + (i / 2),"bean" + i);
+                }
+                for (int i = 499; i > 250; i--) {
+                    graph.removeBean("bean" + i);
+                }
+                if(round % 2 == 0){
+                    graph.clear();
+                }
+            }
+            running.set(false);
+            for (Future<?> reader : readers) {
+                reader.get();
+            }
+        }finally {
+            running.set(false);
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.springframework.beans.factory.support;
+
+import org.junit.Test;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * destroySingleton上报的销毁耗时
+ */
+public class SingletonDestructionTimingTests {
+
+    /**
+     * 先行销毁的依赖方各自上报,不计入被依赖的bean的耗时
+     */
+    @Test
+    public void dependentsAreNotCountedTwice(){
+        DefaultSingletonBeanRegistry registry = new DefaultSingletonBeanRegistry();
+        Map<String,Long> reported = new ConcurrentHashMap<>();
+        registry.setRegistryListener(new SingletonRegistryListener() {
+            @Override
+            public void singletonDestroyed(String beanName, long nanos) {
+                reported.put(beanName,nanos);
+            }
+        });
+        registerSleeping(registry,"dependency",0);
+        registerSleeping(registry,"dependent",100);
+        registerSleeping(registry,"inner",100);
+        registry.registerDependentBean("dependency","dependent");
+        registry.registerContainedBean("inner","dependency");
+
+        registry.destroySingleton("dependency");
+
+        assertEquals(3,reported.size());
+        long dependentNanos = TimeUnit.MILLISECONDS.toNanos(100);
+        assertTrue(reported.get("dependent") >= dependentNanos);
+        assertTrue(reported.get("inner") >= dependentNanos);
+        assertTrue(reported.get("dependency") < dependentNanos);
+    }
+
+    private static void registerSleeping(DefaultSingletonBeanRegistry registry,String beanName,long millis){
+        DisposableBean bean = () -> Thread.sleep(millis);
+        registry.registerSingleton(beanName,bean);
+        registry.registerDisposableBean(beanName,bean);
+    }
+}
@@ -0,0 +1,88 @@
+package org.springframework.beans.factory.support;
+
+import org.junit.Test;
+import org.springframework.beans.factory.FactoryBean;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * 分片写锁和全局单例锁一起使用时的测试
+ */
+public class SingletonMutexShardsTests {
+
+    /**
+     * 一个线程在FactoryBean.getObject中创建单例(需要全局锁),
+     * 另一个线程持有全局锁注册和FactoryBean同一分片上的单例,两者都必须能完成
+     */
+    @Test(timeout = 30000)
+    public void factoryBeanObjectCreationDoesNotHoldShard() throws Exception {
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        beanFactory.setAllowConcurrentSingletonCreation(false);
+        beanFactory.setSingletonMutexShards(2);
+
+        CountDownLatch inGetObject = new CountDownLatch(1);
+        CountDownLatch holdingSingletonMutex = new CountDownLatch(1);
+        Object product = new Object();
+        FactoryBean<Object> factoryBean = new FactoryBean<Object>() {
+            @Override
+            public Object getObject() throws Exception {
+                inGetObject.countDown();
+                holdingSingletonMutex.await();
+                beanFactory.getSingleton("inner",Object::new);
+                return product;
+            }
+
+            @Override
+            public Class<?> getObjectType() {
+                return Object.class;
+            }
+
+            @Override
+            public boolean isSingleton() {
+                return true;
+            }
+        };
+        beanFactory.registerSingleton("factory",factoryBean);
+        String sameShard = nameOnSameShard(beanFactory,"factory");
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try{
+            Future<Object> object = executor.submit(() -> beanFactory.getObjectFromFactoryBean(factoryBean,"factory",false));
+            Future<Object> singleton = executor.submit(() -> beanFactory.getSingleton("outer",() -> {
+                holdingSingletonMutex.countDown();
+                try{
+                    inGetObject.await();
+                }catch(InterruptedException ex){
+                    Thread.currentThread().interrupt();
+                }
+                beanFactory.registerSingleton(sameShard,new Object());
+                return new Object();
+            }));
+            assertSame(product,object.get(10,TimeUnit.SECONDS));
+            assertNotNull(singleton.get(10,TimeUnit.SECONDS));
+        }catch(TimeoutException ex){
+            fail("deadlock between the singleton mutex and a shard mutex");
+        }finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String nameOnSameShard(DefaultSingletonBeanRegistry registry,String beanName){
+        Object mutex = registry.getSingletonMutex(beanName);
+        for (int i = 0; ; i++) {
+            String candidate = "bean" + i;
+            if(registry.getSingletonMutex(candidate) == mutex){
+                return candidate;
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.springframework.beans.factory.support;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 64个线程同时注册、移除和读取单例时,分片写锁和全局单例锁的吞吐量对比。
+ * 运行方式:mvn test-compile 之后用 org.openjdk.jmh.Main SingletonRegistryBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(64)
+public class SingletonRegistryBenchmark {
+
+    private static final int BEANS_PER_THREAD = 16;
+
+
+    @State(Scope.Benchmark)
+    public static class Registry {
+
+        /**
+         * 1表示不分片,所有写操作都使用全局单例锁
+         */
+        @Param({"1", "64"})
+        public int shards;
+
+        public DefaultListableBeanFactory beanFactory;
+
+        @Setup(Level.Trial)
+        public void setUp(){
+            this.beanFactory = new DefaultListableBeanFactory();
+            this.beanFactory.setAllowConcurrentSingletonCreation(true);
+            this.beanFactory.setSingletonMutexShards(this.shards);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Names {
+
+        public String[] beanNames;
+
+        public int next;
+
+        @Setup(Level.Trial)
+        public void setUp(ThreadParams threadParams){
+            this.beanNames = new String[BEANS_PER_THREAD];
+            for (int i = 0; i < BEANS_PER_THREAD; i++) {
+                this.beanNames[i] = "bean" + threadParams.getThreadIndex() + "-" + i;
+            }
+        }
+
+        String nextName(){
+            String beanName = this.beanNames[this.next];
+            this.next = (this.next + 1) % BEANS_PER_THREAD;
+            return beanName;
+        }
+    }
+
+
+    @Benchmark
+    public Object registerAndRemove(Registry registry,Names names){
+        String beanName = names.nextName();
+        Object singleton = new Object();
+        registry.beanFactory.registerSingleton(beanName,singleton);
+        registry.beanFactory.removeSingleton(beanName);
+        return singleton;
+    }
+
+    @Benchmark
+    public Object createAndRead(Registry registry,Names names){
+        String beanName = names.nextName();
+        Object singleton = registry.beanFactory.getSingleton(beanName,Object::new);
+        if(registry.beanFactory.getSingleton(beanName) != singleton){
+            throw new IllegalStateException("singleton '" + beanName + "' was replaced");
+        }
+        registry.beanFactory.removeSingleton(beanName);
+        return singleton;
+    }
+}
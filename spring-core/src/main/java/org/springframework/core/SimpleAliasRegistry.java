@@ -6,17 +6,25 @@ import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 import org.springframework.util.StringValueResolver;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * aliasRegistry的默认实现
  * 主要使用map作为alias缓存,并实现接口aliasRegistry
+ *
+ * 并发:读操作不加锁,getAliases借助版本号发现并发的写操作,此时才退回到写锁下遍历;
+ * 写操作是串行的,先不加锁做校验,再在同一把写锁下提交对aliasMap、反向索引和canonicalName缓存的修改
  */
 public class SimpleAliasRegistry implements AliasRegistry{
 
@@ -25,47 +33,190 @@ public class SimpleAliasRegistry implements AliasRegistry{
     /** map from alias to canonical name */
     private final Map<String,String> aliasMap = new ConcurrentHashMap<>(16);
 
+    /**
+     * 别名 - 沿着别名链解析到底的原始名称,只包含别名,在修改aliasMap时同步维护,
+     * canonicalName只需要查一次
+     */
+    private final Map<String,String> canonicalNameCache = new ConcurrentHashMap<>(16);
+
+    /** 解析器返回null时在缓存中的占位对象 */
+    private static final Object NULL_VALUE = new Object();
+
+    /** aliasMap的反向索引:名称 - 直接指向它的别名,与aliasMap一起维护 */
+    private final Map<String,Set<String>> aliasesByName = new ConcurrentHashMap<>(16);
+
+
+    /**
+     * 别名写锁,所有对aliasMap、反向索引和缓存的修改都在这个锁下提交,可重入
+     */
+    private final ReentrantLock aliasWriteLock = new ReentrantLock();
+
+    /**
+     * 别名写操作的版本号,只在写锁下修改:奇数表示有写操作正在提交,偶数表示没有。
+     * 写操作先不加锁校验,加锁后版本号没有变化就直接提交,否则在锁内重新校验一次;
+     * 没有写操作提交时读操作不加锁
+     */
+    private volatile long aliasVersion = 0;
+
 
     @Override
     public void registerAlias(String name, String alias) {
         Assert.hasText(name,"'name' must not be empty");
         Assert.hasText(alias,"'alias' must not be empty");
 
-        synchronized (this.aliasMap){
-            //如果别名和bean的名字相同
-            if(alias.equals(name)){
-                //将从aliasMap中移除
-                this.aliasMap.remove(alias);
-                if(logger.isDebugEnabled()){
-                    logger.debug("alias definiton '" + alias +"ignored since it proints to same name");
+        //如果别名和bean的名字相同
+        if(alias.equals(name)){
+            //将从aliasMap中移除
+            beginAliasUpdate();
+            try{
+                if(removeAliasEntry(alias) != null){
+                    refreshCanonicalNames(Collections.singleton(alias));
                 }
-            }else{
-                //获取注册的别名?
-                String registeredName = this.aliasMap.get(alias);
-                if(registeredName != null){
-                    if(registeredName.equals(name)){
-                        return;
-                    }
-                }
-                //不允许覆盖别名
-                if(!allowAliasOverriding()){
-                    throw new IllegalStateException("Cannot define alias '" + alias + "' for name '" +
-                            name + "': It is already registered for name '" + registeredName + "'.");
-                }
-                if (logger.isInfoEnabled()) {
-                    logger.info("Overriding alias '" + alias + "' definition for registered name '" +
-                            registeredName + "' with new target name '" + name + "'");
-                }
-                //检查别名是否可以进行注册
-                checkForAliasCircle(name,alias);
-                //放入map中
-                this.aliasMap.put(alias,name);
-                if(logger.isDebugEnabled()){
-                    logger.debug("Alias definition '" + alias + "' registered for name '" + name + "'");
+            }finally {
+                endAliasUpdate();
+            }
+            if(logger.isDebugEnabled()){
+                logger.debug("alias definiton '" + alias +"ignored since it proints to same name");
+            }
+            return;
+        }
+        //先不加锁校验
+        long version = this.aliasVersion;
+        //获取注册的别名?
+        String registeredName = this.aliasMap.get(alias);
+        if(registeredName != null && registeredName.equals(name)){
+            return;
+        }
+        IllegalStateException validationFailure = null;
+        try{
+            checkAliasRegistration(name,alias,registeredName);
+        }catch(IllegalStateException ex){
+            validationFailure = ex;
+        }
+        beginAliasUpdate();
+        try{
+            if(aliasVersionChanged(version)){
+                //校验期间有其他写操作提交,读到的状态可能已经过期,在锁内重新校验
+                registeredName = this.aliasMap.get(alias);
+                if(registeredName != null && registeredName.equals(name)){
+                    return;
                 }
+                validationFailure = null;
+                checkAliasRegistration(name,alias,registeredName);
+            }
+            if(validationFailure != null){
+                throw validationFailure;
+            }
+            //放入map中
+            putAliasEntry(alias,name);
+            refreshCanonicalNames(Collections.singleton(alias));
+        }finally {
+            endAliasUpdate();
+        }
+        if (registeredName != null && logger.isInfoEnabled()) {
+            logger.info("Overriding alias '" + alias + "' definition for registered name '" +
+                    registeredName + "' with new target name '" + name + "'");
+        }
+        if(logger.isDebugEnabled()){
+            logger.debug("Alias definition '" + alias + "' registered for name '" + name + "'");
+        }
+    }
+
+    /**
+     * 检查别名是否可以进行注册
+     * @param registeredName 别名当前指向的名称,没有时为null
+     */
+    private void checkAliasRegistration(String name,String alias,String registeredName){
+        //不允许覆盖别名
+        if(registeredName != null && !allowAliasOverriding()){
+            throw new IllegalStateException("Cannot define alias '" + alias + "' for name '" +
+                    name + "': It is already registered for name '" + registeredName + "'.");
+        }
+        checkForAliasCircle(name,alias);
+    }
+
+    /**
+     * 批量注册别名,key为别名,value为名称。
+     * 整批一起校验:用并查集一次遍历检查环,任何一个别名冲突都不会注册,
+     * 所有冲突在同一个异常中报告;校验通过后一次性提交
+     * @param aliases 别名 - 名称,别名与名称相同表示移除该别名
+     */
+    public void registerAliases(Map<String,String> aliases){
+        Assert.notNull(aliases,"'aliases' must not be null");
+        aliases.forEach((alias,name)->{
+            Assert.hasText(name,"'name' must not be empty");
+            Assert.hasText(alias,"'alias' must not be empty");
+        });
+
+        //先不加锁校验
+        long version = this.aliasVersion;
+        List<String> conflicts = collectAliasConflicts(aliases);
+        List<String> changedAliases = new ArrayList<>(aliases.size());
+        beginAliasUpdate();
+        try{
+            if(aliasVersionChanged(version)){
+                //校验期间有其他写操作提交,在锁内重新校验一次,不会反复重试
+                conflicts = collectAliasConflicts(aliases);
+            }
+            if(!conflicts.isEmpty()){
+                throw new IllegalStateException("Cannot register " + conflicts.size() + " of " + aliases.size() +
+                        " aliases: " + StringUtils.collectionToDelimitedString(conflicts,"; "));
             }
+            aliases.forEach((alias,name)->{
+                if(alias.equals(name)){
+                    if(removeAliasEntry(alias) != null){
+                        changedAliases.add(alias);
+                    }
+                }else if(!name.equals(this.aliasMap.get(alias))){
+                    putAliasEntry(alias,name);
+                    changedAliases.add(alias);
+                }
+            });
+            refreshCanonicalNames(changedAliases);
+        }finally {
+            endAliasUpdate();
+        }
+        if(logger.isDebugEnabled()){
+            logger.debug("Registered " + changedAliases.size() + " alias definitions in one batch");
         }
+    }
 
+    /**
+     * 按当前的aliasMap校验一批别名
+     * @return 所有冲突的描述,没有冲突时为空
+     */
+    private List<String> collectAliasConflicts(Map<String,String> aliases){
+        List<String> conflicts = new ArrayList<>();
+        //应用本批别名之后的映射
+        Map<String,String> effectiveAliases = new HashMap<>(this.aliasMap);
+        aliases.forEach((alias,name)->{
+            if(alias.equals(name)){
+                effectiveAliases.remove(alias);
+                return;
+            }
+            String registeredName = this.aliasMap.get(alias);
+            if(registeredName != null && !registeredName.equals(name) && !allowAliasOverriding()){
+                conflicts.add("alias '" + alias + "' for name '" + name +
+                        "': It is already registered for name '" + registeredName + "'");
+                return;
+            }
+            effectiveAliases.put(alias,name);
+        });
+
+        //已有的别名本身没有环,先合并;本批的别名如果两端已经连通就会形成环
+        AliasUnionFind unionFind = new AliasUnionFind(effectiveAliases.size() * 2);
+        effectiveAliases.forEach((alias,name)->{
+            if(!aliases.containsKey(alias)){
+                unionFind.union(alias,name);
+            }
+        });
+        aliases.forEach((alias,name)->{
+            if(name.equals(effectiveAliases.get(alias)) && !unionFind.union(alias,name)){
+                conflicts.add("alias '" + alias + "' for name '" + name + "': Circular reference - '" +
+                        name + "' is a direct or indirect alias for '" + alias + "'");
+            }
+        });
+        return conflicts;
     }
 
     /**
@@ -76,12 +227,25 @@ public class SimpleAliasRegistry implements AliasRegistry{
         return true;
     }
 
+    /**
+     * 判断alias是否是name的直接或间接别名,只遍历name下的别名树
+     */
     public boolean hasAlias(String name,String alias){
-        for (Map.Entry<String, String> entry : this.aliasMap.entrySet()) {
-            String value = entry.getValue();
-            if(value.equals(name)){
-                final String registeredAlias = entry.getKey();
-                return (registeredAlias.equals(alias) || hasAlias(registeredAlias, alias));
+        //不加锁读取时可能看到批量提交的中间状态,其中可能暂时有环,已访问的名称不再遍历
+        Set<String> visited = new HashSet<>();
+        Deque<String> names = new ArrayDeque<>();
+        names.push(name);
+        while(!names.isEmpty()){
+            Set<String> aliases = this.aliasesByName.get(names.pop());
+            if(aliases != null){
+                for (String registeredAlias : aliases) {
+                    if(registeredAlias.equals(alias)){
+                        return true;
+                    }
+                    if(visited.add(registeredAlias)){
+                        names.push(registeredAlias);
+                    }
+                }
             }
         }
         return false;
@@ -89,11 +253,14 @@ public class SimpleAliasRegistry implements AliasRegistry{
 
     @Override
     public void removeAlias(String alias) {
-        synchronized (this.aliasMap){
-            String remove = this.aliasMap.remove(alias);
-            if(remove == null){
+        beginAliasUpdate();
+        try{
+            if(removeAliasEntry(alias) == null){
                 throw new IllegalStateException("不存在别名:"+alias);
             }
+            refreshCanonicalNames(Collections.singleton(alias));
+        }finally {
+            endAliasUpdate();
         }
     }
 
@@ -104,31 +271,71 @@ public class SimpleAliasRegistry implements AliasRegistry{
 
     @Override
     public String[] getAliases(String name) {
-        List<String> list = new ArrayList<>();
-        synchronized (this.aliasMap){
-
+        long version = this.aliasVersion;
+        if((version & 1) == 0){
+            List<String> list = new ArrayList<>();
+            retrieveAliases(name,list);
+            if(this.aliasVersion == version){
+                return StringUtils.toStringArray(list);
+            }
+        }
+        //遍历期间有写操作提交,在写锁下重新遍历,保证返回的是同一个版本的别名
+        this.aliasWriteLock.lock();
+        try{
+            List<String> list = new ArrayList<>();
+            retrieveAliases(name,list);
+            return StringUtils.toStringArray(list);
+        }finally {
+            this.aliasWriteLock.unlock();
         }
-        return StringUtils.toStringArray(list);
     }
 
+    /**
+     * 用给定的解析器解析所有别名和名称中的占位符。
+     * 先不加锁地在公共ForkJoinPool上并行解析当前所有不同的字符串,每个字符串只调用一次解析器,
+     * 所以解析器会被多个线程同时调用,必须是线程安全的。
+     * 然后在写锁下按原有的冲突和环检查规则应用到当前所有的别名上:
+     * 解析期间被其他写操作修改或新注册的别名中没有解析过的字符串,在写锁下由当前线程逐个解析
+     */
     public void resolveAliases(StringValueResolver valueResolver){
         Assert.notNull(valueResolver,"StringValueResolver must not be null");
 
-        //对该对象加锁
-        synchronized (this.aliasMap){
-            Map<String,String> aliasCopy = new HashMap<>(this.aliasMap);
+        //计算阶段:不阻塞其他写操作,相同的名称只解析一次
+        Set<String> values = new HashSet<>(this.aliasMap.size() * 2);
+        this.aliasMap.forEach((alias,registeredName)->{
+            values.add(alias);
+            values.add(registeredName);
+        });
+        Map<String,Object> resolvedValues = new ConcurrentHashMap<>(values.size() * 2);
+        values.parallelStream().forEach(value -> {
+            String resolvedValue = valueResolver.resolveStringValue(value);
+            resolvedValues.put(value,(resolvedValue != null ? resolvedValue : NULL_VALUE));
+        });
+
+        //应用阶段:在写锁下提交
+        beginAliasUpdate();
+        try{
+            applyResolvedAliases(valueResolver,resolvedValues);
+        }finally {
+            endAliasUpdate();
+        }
+    }
+
+    private void applyResolvedAliases(StringValueResolver valueResolver,Map<String,Object> resolvedValues){
+        Map<String,String> aliasCopy = new HashMap<>(this.aliasMap);
+        try{
             aliasCopy.forEach((alias,registeredName)->{
-                String resolvedAlias = valueResolver.resolveStringValue(alias);
-                String resolvedName = valueResolver.resolveStringValue(registeredName);
+                String resolvedAlias = resolvedValue(valueResolver,resolvedValues,alias);
+                String resolvedName = resolvedValue(valueResolver,resolvedValues,registeredName);
                 if(resolvedAlias == null || resolvedName == null || resolvedAlias.equals(resolvedName)){
-                    this.aliasMap.remove(alias);
+                    removeAliasEntry(alias);
                 }
                 else if(!resolvedAlias.equals(alias)){
                     //新的别名
                     String existingName = this.aliasMap.get(resolvedAlias);
                     if(existingName != null){
                         if(existingName.equals(resolvedName)){
-                            this.aliasMap.remove(alias);
+                            removeAliasEntry(alias);
                             return;
                         }
                         throw new IllegalStateException("Cannot register resolved alias '" + resolvedAlias + "' (original: '" + alias +
@@ -136,27 +343,117 @@ public class SimpleAliasRegistry implements AliasRegistry{
                                         registeredName + "'.");
                     }
                     checkForAliasCircle(resolvedName,resolvedAlias);
-                    this.aliasMap.remove(alias);
-                    this.aliasMap.put(resolvedAlias,resolvedName);
+                    removeAliasEntry(alias);
+                    putAliasEntry(resolvedAlias,resolvedName);
                 }else if(!registeredName.equals(resolvedName)){
-                    this.aliasMap.put(alias,resolvedName);
+                    putAliasEntry(alias,resolvedName);
                 }
             });
+        }finally {
+            //解析中途失败时已经应用的修改同样需要更新缓存
+            Set<String> changedAliases = new HashSet<>(aliasCopy.keySet());
+            changedAliases.addAll(this.aliasMap.keySet());
+            refreshCanonicalNames(changedAliases);
         }
     }
 
     /**
-     * 递归的去找别名所对应的所有别名.
+     * 开始提交写操作:获取写锁,最外层的写操作把版本号改成奇数
+     */
+    private void beginAliasUpdate(){
+        this.aliasWriteLock.lock();
+        if(this.aliasWriteLock.getHoldCount() == 1){
+            this.aliasVersion++;
+        }
+    }
+
+    /**
+     * 结束提交写操作:最外层的写操作把版本号改回偶数,释放写锁
+     */
+    private void endAliasUpdate(){
+        try{
+            if(this.aliasWriteLock.getHoldCount() == 1){
+                this.aliasVersion++;
+            }
+        }finally {
+            this.aliasWriteLock.unlock();
+        }
+    }
+
+    /**
+     * 在beginAliasUpdate之后调用,判断不加锁校验之后是否有其他写操作提交过
+     * @param version 不加锁校验开始时的版本号
+     */
+    private boolean aliasVersionChanged(long version){
+        return (version & 1) != 0 || this.aliasVersion != version + 1;
+    }
+
+    /**
+     * 取计算阶段解析的结果,计算阶段之后才注册的名称在这里补充解析,解析器返回null时返回null
+     */
+    private static String resolvedValue(StringValueResolver valueResolver,Map<String,Object> resolvedValues,String value){
+        Object resolvedValue = resolvedValues.get(value);
+        if(resolvedValue == null){
+            String result = valueResolver.resolveStringValue(value);
+            resolvedValue = (result != null ? result : NULL_VALUE);
+            resolvedValues.put(value,resolvedValue);
+        }
+        return (resolvedValue != NULL_VALUE ? (String) resolvedValue : null);
+    }
+
+    /**
+     * 通过反向索引找出名称所对应的所有直接和间接别名.
      * @param name
      * @param result
      */
     private void retrieveAliases(String name,List<String> result){
-        this.aliasMap.forEach((k,v)->{
-            if(v.equals(name)){
-                result.add(k);
-                retrieveAliases(k,result);
+        Set<String> visited = new HashSet<>();
+        Deque<String> names = new ArrayDeque<>();
+        names.push(name);
+        while(!names.isEmpty()){
+            Set<String> aliases = this.aliasesByName.get(names.pop());
+            if(aliases != null){
+                for (String alias : aliases) {
+                    if(visited.add(alias)){
+                        result.add(alias);
+                        names.push(alias);
+                    }
+                }
             }
-        });
+        }
+    }
+
+    /**
+     * 注册别名并维护反向索引,调用方需要持有写锁
+     */
+    private void putAliasEntry(String alias,String name){
+        String previousName = this.aliasMap.put(alias,name);
+        if(previousName != null && !previousName.equals(name)){
+            removeFromIndex(previousName,alias);
+        }
+        this.aliasesByName.computeIfAbsent(name,k -> ConcurrentHashMap.newKeySet()).add(alias);
+    }
+
+    /**
+     * 移除别名并维护反向索引,调用方需要持有写锁
+     * @return 别名原先指向的名称,不存在时返回null
+     */
+    private String removeAliasEntry(String alias){
+        String name = this.aliasMap.remove(alias);
+        if(name != null){
+            removeFromIndex(name,alias);
+        }
+        return name;
+    }
+
+    private void removeFromIndex(String name,String alias){
+        Set<String> aliases = this.aliasesByName.get(name);
+        if(aliases != null){
+            aliases.remove(alias);
+            if(aliases.isEmpty()){
+                this.aliasesByName.remove(name);
+            }
+        }
     }
 
     /**
@@ -178,14 +475,116 @@ public class SimpleAliasRegistry implements AliasRegistry{
      * @return
      */
     public String canonicalName(String name){
-        String canonicalName = name;
-        String resolvedName;
-        do{
-            resolvedName = this.aliasMap.get(canonicalName);
+        String canonicalName = this.canonicalNameCache.get(name);
+        return (canonicalName != null ? canonicalName : name);
+    }
+
+    /**
+     * 给定的别名发生变化之后,重新计算它们以及所有经过它们解析的别名的原始名称,
+     * 每个受影响的别名只解析一次。调用方需要持有写锁
+     */
+    private void refreshCanonicalNames(Collection<String> changedAliases){
+        Set<String> affected = new HashSet<>(changedAliases.size() * 2);
+        Deque<String> names = new ArrayDeque<>(changedAliases);
+        while(!names.isEmpty()){
+            String name = names.pop();
+            if(affected.add(name)){
+                Set<String> aliases = this.aliasesByName.get(name);
+                if(aliases != null){
+                    names.addAll(aliases);
+                }
+            }
+        }
+        Map<String,String> resolved = new HashMap<>(affected.size() * 2);
+        for (String name : affected) {
+            refreshCanonicalName(name,affected,resolved);
+        }
+        canonicalNamesChanged(affected);
+    }
+
+    /**
+     * 给定名称解析出的原始名称可能发生了变化,子类可以在这里清除按名称缓存的数据。
+     * 在提交写操作的过程中调用,实现需要尽量轻量,并且不能再修改别名
+     * @param names 原始名称可能变化的名称
+     */
+    protected void canonicalNamesChanged(Set<String> names){
+    }
+
+    /**
+     * 沿着aliasMap解析给定名称,途经的受影响别名一起更新缓存
+     */
+    private void refreshCanonicalName(String name,Set<String> affected,Map<String,String> resolved){
+        List<String> path = new ArrayList<>();
+        String current = name;
+        String canonicalName;
+        while(true){
+            String resolvedName = resolved.get(current);
             if(resolvedName != null){
                 canonicalName = resolvedName;
+                break;
+            }
+            if(!affected.contains(current)){
+                //没有受影响的名称,缓存仍然有效
+                canonicalName = canonicalName(current);
+                break;
+            }
+            path.add(current);
+            String registeredName = this.aliasMap.get(current);
+            if(registeredName == null){
+                canonicalName = current;
+                break;
+            }
+            current = registeredName;
+        }
+        for (String alias : path) {
+            resolved.put(alias,canonicalName);
+            if(alias.equals(canonicalName)){
+                this.canonicalNameCache.remove(alias);
+            }else{
+                this.canonicalNameCache.put(alias,canonicalName);
+            }
+        }
+    }
+
+
+    /**
+     * 并查集,用于批量注册时检查别名是否形成环。
+     * 每个别名只指向一个名称,所以连通分量中出现环就是别名链中的环
+     */
+    private static final class AliasUnionFind {
+
+        private final Map<String,String> parents;
+
+        AliasUnionFind(int expectedSize){
+            this.parents = new HashMap<>(expectedSize);
+        }
+
+        String find(String name){
+            String root = name;
+            String parent;
+            while((parent = this.parents.get(root)) != null){
+                root = parent;
+            }
+            //路径压缩
+            String current = name;
+            while(!current.equals(root)){
+                current = this.parents.put(current,root);
             }
-        }while(resolvedName != null);
-        return canonicalName;
+            return root;
+        }
+
+        /**
+         * 合并两个名称所在的集合
+         * @return 两个名称原本已经连通时返回false
+         */
+        boolean union(String name,String other){
+            String root = find(name);
+            String otherRoot = find(other);
+            if(root.equals(otherRoot)){
+                return false;
+            }
+            this.parents.put(root,otherRoot);
+            return true;
+        }
     }
 }
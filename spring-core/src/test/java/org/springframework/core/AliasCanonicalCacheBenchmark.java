@@ -0,0 +1,63 @@
+package org.springframework.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 维护canonicalName缓存给registerAlias/removeAlias带来的写开销。
+ * cachedAliases是预先注册好的别名个数,0表示缓存是空的,10000表示缓存已经写满了无关的别名;
+ * chainedAliases是经过被修改的别名解析的别名个数,每次写操作都要重新计算它们的原始名称。
+ * 运行方式:mvn test-compile 之后用 org.openjdk.jmh.Main AliasCanonicalCacheBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AliasCanonicalCacheBenchmark {
+
+    @Param({"0", "10000"})
+    public int cachedAliases;
+
+    @Param({"0", "64"})
+    public int chainedAliases;
+
+    private SimpleAliasRegistry registry;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        this.registry = new SimpleAliasRegistry();
+        for (int i = 0; i < this.cachedAliases; i++) {
+            this.registry.registerAlias("bean" + (i % 100),"cached" + i);
+        }
+        //chained0 -> alias,chained1 -> chained0 ...,alias每次注册和移除时整条链都要重新解析
+        String name = "alias";
+        for (int i = 0; i < this.chainedAliases; i++) {
+            this.registry.registerAlias(name,"chained" + i);
+            name = "chained" + i;
+        }
+    }
+
+    /**
+     * 一次registerAlias加一次removeAlias。不测覆盖已有的别名,覆盖时每次都会输出INFO日志
+     */
+    @Benchmark
+    public String registerAndRemoveAlias(){
+        this.registry.registerAlias("target","alias");
+        this.registry.removeAlias("alias");
+        return this.registry.canonicalName("alias");
+    }
+}
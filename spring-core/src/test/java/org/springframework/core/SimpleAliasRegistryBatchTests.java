@@ -0,0 +1,112 @@
+package org.springframework.core;
+
+import org.junit.Test;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * registerAliases整批校验、整批提交
+ */
+public class SimpleAliasRegistryBatchTests {
+
+    /**
+     * 一批中的多个冲突在同一个异常中报告,aliasMap保持不变
+     */
+    @Test
+    public void allConflictsAreReportedAndNothingIsRegistered(){
+        SimpleAliasRegistry registry = new SimpleAliasRegistry() {
+            @Override
+            protected boolean allowAliasOverriding() {
+                return false;
+            }
+        };
+        registry.registerAlias("a","a1");
+        registry.registerAlias("b","b1");
+        registry.registerAlias("c","c1");
+        Map<String,String> before = new HashMap<>(aliasMap(registry));
+
+        Map<String,String> aliases = new LinkedHashMap<>();
+        aliases.put("x1","x");
+        aliases.put("a1","other");
+        aliases.put("b1","other");
+        aliases.put("c","c1");
+        aliases.put("y1","y");
+        try{
+            registry.registerAliases(aliases);
+            fail("expected IllegalStateException");
+        }catch(IllegalStateException ex){
+            String message = ex.getMessage();
+            assertTrue(message,message.startsWith("Cannot register 3 of 5 aliases"));
+            assertTrue(message,message.contains("alias 'a1' for name 'other'"));
+            assertTrue(message,message.contains("alias 'b1' for name 'other'"));
+            assertTrue(message,message.contains("alias 'c' for name 'c1': Circular reference"));
+        }
+        assertEquals(before,aliasMap(registry));
+        assertEquals("a",registry.canonicalName("a1"));
+        assertEquals("x1",registry.canonicalName("x1"));
+        assertEquals(0,registry.getAliases("y").length);
+    }
+
+    /**
+     * 和已有别名形成环的一批与registerAlias一样被拒绝
+     */
+    @Test
+    public void batchClosingCycleIsRejectedLikeSingleRegistration(){
+        SimpleAliasRegistry registry = new SimpleAliasRegistry();
+        registry.registerAlias("a","b");
+        registry.registerAlias("b","c");
+        Map<String,String> before = new HashMap<>(aliasMap(registry));
+        try{
+            registry.registerAlias("c","a");
+            fail("expected IllegalStateException");
+        }catch(IllegalStateException ex){
+            assertTrue(ex.getMessage(),ex.getMessage().contains("Circular reference"));
+        }
+
+        Map<String,String> aliases = new HashMap<>();
+        aliases.put("a","c");
+        try{
+            registry.registerAliases(aliases);
+            fail("expected IllegalStateException");
+        }catch(IllegalStateException ex){
+            assertTrue(ex.getMessage(),ex.getMessage().contains("alias 'a' for name 'c': Circular reference"));
+        }
+        assertEquals(before,aliasMap(registry));
+        assertEquals("a",registry.canonicalName("c"));
+    }
+
+    /**
+     * 环完全在同一批之内时也会被拒绝
+     */
+    @Test
+    public void cycleWithinBatchIsRejected(){
+        SimpleAliasRegistry registry = new SimpleAliasRegistry();
+        Map<String,String> aliases = new LinkedHashMap<>();
+        aliases.put("x","y");
+        aliases.put("y","z");
+        aliases.put("z","x");
+        try{
+            registry.registerAliases(aliases);
+            fail("expected IllegalStateException");
+        }catch(IllegalStateException ex){
+            assertTrue(ex.getMessage(),ex.getMessage().contains("Circular reference"));
+        }
+        assertTrue(aliasMap(registry).isEmpty());
+        assertEquals("x",registry.canonicalName("x"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String,String> aliasMap(SimpleAliasRegistry registry){
+        Field field = ReflectionUtils.findField(SimpleAliasRegistry.class,"aliasMap");
+        ReflectionUtils.makeAccessible(field);
+        return (Map<String,String>) ReflectionUtils.getField(field,registry);
+    }
+}
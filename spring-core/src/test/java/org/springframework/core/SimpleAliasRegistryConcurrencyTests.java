@@ -0,0 +1,199 @@
+package org.springframework.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SimpleAliasRegistry在并发写入下的一致性测试
+ */
+public class SimpleAliasRegistryConcurrencyTests {
+
+    private static final int NAME_COUNT = 16;
+
+    private static final int THREAD_COUNT = 8;
+
+    private static final int OPERATIONS_PER_THREAD = 5000;
+
+
+    @Test(timeout = 60000)
+    public void concurrentWritesLeaveConsistentRegistry() throws Exception {
+        SimpleAliasRegistry registry = new SimpleAliasRegistry();
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        try{
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int j = 0; j < OPERATIONS_PER_THREAD; j++) {
+                        try{
+                            switch(random.nextInt(6)){
+                                case 0:
+                                case 1:
+                                    registry.registerAlias(randomName(random),randomName(random));
+                                    break;
+                                case 2:
+                                    registry.removeAlias(randomName(random));
+                                    break;
+                                case 3:
+                                    Map<String,String> aliases = new HashMap<>();
+                                    for (int k = random.nextInt(1,5); k > 0; k--) {
+                                        aliases.put(randomName(random),randomName(random));
+                                    }
+                                    registry.registerAliases(aliases);
+                                    break;
+                                case 4:
+                                    //占位符解析成对应的名称
+                                    registry.registerAlias(randomName(random),"${" + randomName(random) + "}");
+                                    registry.resolveAliases(value -> value.startsWith("${") ?
+                                            value.substring(2,value.length() - 1) : value);
+                                    break;
+                                default:
+                                    String name = randomName(random);
+                                    for (String alias : registry.getAliases(name)) {
+                                        registry.canonicalName(alias);
+                                    }
+                                    registry.hasAlias(name,randomName(random));
+                                    registry.canonicalName(name);
+                            }
+                        }catch(IllegalStateException ex){
+                            //环、冲突以及移除不存在的别名
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }finally {
+            executor.shutdownNow();
+        }
+
+        assertConsistent(registry);
+    }
+
+    @Test(timeout = 60000)
+    public void opposingAliasesNeverBothRegister() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try{
+            for (int i = 0; i < 2000; i++) {
+                SimpleAliasRegistry registry = new SimpleAliasRegistry();
+                CountDownLatch start = new CountDownLatch(1);
+                AtomicInteger registered = new AtomicInteger();
+                Future<?> first = executor.submit(() -> registerAfter(start,registry,"a","b",registered));
+                Future<?> second = executor.submit(() -> registerAfter(start,registry,"b","a",registered));
+                start.countDown();
+                first.get();
+                second.get();
+                assertEquals(1,registered.get());
+                assertTrue(registry.isAlias("a") != registry.isAlias("b"));
+                assertConsistent(registry);
+            }
+        }finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void resolverMayUseRegistry() throws Exception {
+        SimpleAliasRegistry registry = new SimpleAliasRegistry();
+        registry.registerAlias("n0","${n1}");
+        registry.registerAlias("n2","n3");
+        //并行解析时不持有写锁,补充解析时写锁可重入,读写注册表都不会等待自己
+        registry.resolveAliases(value -> {
+            registry.getAliases(value);
+            registry.registerAlias("n4","n5");
+            return value.startsWith("${") ? value.substring(2,value.length() - 1) : value;
+        });
+        assertEquals("n0",registry.canonicalName("n1"));
+        assertEquals("n4",registry.canonicalName("n5"));
+        assertEquals("n2",registry.canonicalName("n3"));
+        assertConsistent(registry);
+    }
+
+    /**
+     * 并行解析期间新注册或者被修改的别名,在应用阶段补充解析
+     */
+    @Test
+    public void entriesChangedDuringResolutionAreResolved(){
+        SimpleAliasRegistry registry = new SimpleAliasRegistry();
+        registry.registerAlias("n0","${n1}");
+        registry.registerAlias("n2","${n3}");
+        registry.resolveAliases(value -> {
+            if(value.equals("${n1}")){
+                //新注册的别名
+                registry.registerAlias("n4","${n5}");
+                //修改已有的别名
+                registry.registerAlias("${n6}","${n3}");
+            }
+            return value.startsWith("${") ? value.substring(2,value.length() - 1) : value;
+        });
+        assertEquals("n0",registry.canonicalName("n1"));
+        assertEquals("n4",registry.canonicalName("n5"));
+        assertEquals("n6",registry.canonicalName("n3"));
+        assertEquals("${n5}",registry.canonicalName("${n5}"));
+        assertEquals("${n3}",registry.canonicalName("${n3}"));
+        assertConsistent(registry);
+    }
+
+    private static Void registerAfter(CountDownLatch start,SimpleAliasRegistry registry,
+                                      String name,String alias,AtomicInteger registered) throws InterruptedException {
+        start.await();
+        try{
+            registry.registerAlias(name,alias);
+            registered.incrementAndGet();
+        }catch(IllegalStateException ex){
+            //另一个方向已经注册
+        }
+        return null;
+    }
+
+    private static String randomName(ThreadLocalRandom random){
+        return "n" + random.nextInt(NAME_COUNT);
+    }
+
+    /**
+     * 检查别名没有环,canonicalName、isAlias、getAliases和hasAlias相互一致
+     */
+    private static void assertConsistent(SimpleAliasRegistry registry){
+        for (int i = 0; i < NAME_COUNT; i++) {
+            String name = "n" + i;
+            assertFalse("alias cycle through " + name,registry.hasAlias(name,name));
+            List<String> aliases = Arrays.asList(registry.getAliases(name));
+            assertFalse("alias cycle through " + name,aliases.contains(name));
+            assertEquals("duplicate aliases of " + name,aliases.size(),aliases.stream().distinct().count());
+
+            String canonicalName = registry.canonicalName(name);
+            assertFalse(name + " resolved to alias " + canonicalName,registry.isAlias(canonicalName));
+            if(registry.isAlias(name)){
+                assertTrue(Arrays.asList(registry.getAliases(canonicalName)).contains(name));
+                assertTrue(registry.hasAlias(canonicalName,name));
+            }else{
+                assertEquals(name,canonicalName);
+            }
+            for (String alias : aliases) {
+                assertTrue(registry.isAlias(alias));
+                assertEquals(canonicalName,registry.canonicalName(alias));
+                assertTrue(registry.hasAlias(name,alias));
+            }
+        }
+    }
+}
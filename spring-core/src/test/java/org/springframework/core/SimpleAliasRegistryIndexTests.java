@@ -0,0 +1,119 @@
+package org.springframework.core;
+
+import org.junit.Test;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * getAliases和hasAlias使用的反向索引aliasesByName与aliasMap保持一致
+ */
+public class SimpleAliasRegistryIndexTests {
+
+    @Test
+    public void transitiveChainIsFollowed(){
+        SimpleAliasRegistry registry = chain();
+
+        assertAliases(registry,"a","b","c","d");
+        assertAliases(registry,"b","c","d");
+        assertAliases(registry,"d");
+        assertTrue(registry.hasAlias("a","d"));
+        assertTrue(registry.hasAlias("b","d"));
+        assertFalse(registry.hasAlias("d","a"));
+        assertIndexConsistent(registry);
+    }
+
+    /**
+     * 移除链中间的别名之后,链从这里断开
+     */
+    @Test
+    public void removedAliasLeavesIndex(){
+        SimpleAliasRegistry registry = chain();
+        registry.removeAlias("c");
+
+        assertAliases(registry,"a","b");
+        assertAliases(registry,"b");
+        assertAliases(registry,"c","d");
+        assertFalse(registry.hasAlias("a","c"));
+        assertFalse(registry.hasAlias("a","d"));
+        assertTrue(registry.hasAlias("c","d"));
+        assertIndexConsistent(registry);
+
+        //别名和名称相同也会移除别名
+        registry.registerAlias("d","d");
+        assertAliases(registry,"c");
+        assertIndexConsistent(registry);
+    }
+
+    /**
+     * 别名指向新的名称之后,只能从新的名称找到它以及它下面的别名
+     */
+    @Test
+    public void repointedAliasMovesInIndex(){
+        SimpleAliasRegistry registry = chain();
+        registry.registerAlias("x","c");
+
+        assertAliases(registry,"a","b");
+        assertAliases(registry,"x","c","d");
+        assertFalse(registry.hasAlias("a","c"));
+        assertFalse(registry.hasAlias("b","d"));
+        assertTrue(registry.hasAlias("x","d"));
+        assertIndexConsistent(registry);
+
+        //批量注册时一起修改
+        Map<String,String> aliases = new HashMap<>();
+        aliases.put("b","x");
+        aliases.put("d","a");
+        registry.registerAliases(aliases);
+        assertAliases(registry,"a","d");
+        assertAliases(registry,"x","b","c");
+        assertFalse(registry.hasAlias("x","d"));
+        assertIndexConsistent(registry);
+    }
+
+    /**
+     * a <- b <- c <- d
+     */
+    private static SimpleAliasRegistry chain(){
+        SimpleAliasRegistry registry = new SimpleAliasRegistry();
+        registry.registerAlias("a","b");
+        registry.registerAlias("b","c");
+        registry.registerAlias("c","d");
+        return registry;
+    }
+
+    private static void assertAliases(SimpleAliasRegistry registry,String name,String... expected){
+        assertEquals(new HashSet<>(Arrays.asList(expected)),new HashSet<>(Arrays.asList(registry.getAliases(name))));
+    }
+
+    /**
+     * 反向索引和按aliasMap重新建立的索引相同,没有留下空的集合
+     */
+    private static void assertIndexConsistent(SimpleAliasRegistry registry){
+        Map<String,Set<String>> expected = new HashMap<>();
+        Map<String,String> aliasMap = field(registry,"aliasMap");
+        aliasMap.forEach((alias,name) -> expected.computeIfAbsent(name,k -> new HashSet<>()).add(alias));
+        Map<String,Set<String>> aliasesByName = field(registry,"aliasesByName");
+        Map<String,Set<String>> actual = new HashMap<>();
+        aliasesByName.forEach((name,aliases) -> actual.put(name,new HashSet<>(aliases)));
+        assertEquals(expected,actual);
+        assertFalse(actual.containsValue(Collections.emptySet()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T field(SimpleAliasRegistry registry,String name){
+        Field field = ReflectionUtils.findField(SimpleAliasRegistry.class,name);
+        ReflectionUtils.makeAccessible(field);
+        return (T) ReflectionUtils.getField(field,registry);
+    }
+}